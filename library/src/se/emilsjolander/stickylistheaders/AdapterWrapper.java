@@ -1,11 +1,11 @@
 package se.emilsjolander.stickylistheaders;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
 
 import android.content.Context;
 import android.database.DataSetObserver;
-import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
@@ -29,22 +29,81 @@ class AdapterWrapper extends BaseAdapter implements StickyListHeadersAdapter {
 		void onHeaderClick(View header, int itemPosition, long headerId);
 	}
 
+	interface OnSectionIndexReadyListener {
+		void onSectionIndexReady();
+	}
+
+	// enough to hold the headers of a screen full of short sections
+	static final int DEFAULT_MAX_RECYCLED_HEADERS = 8;
+
 	StickyListHeadersAdapter mDelegate;
-	private final List<View> mHeaderCache = new LinkedList<View>();
+	private final HeaderPool mHeaderPool;
+	// by item view type of the wrapped adapter, learned from the items it returns
+	private final boolean[] mIsCheckableViewType;
+	// wrappers created ahead of time by prewarmItem(), by item view type
+	private final SparseArray<ArrayList<WrapperView>> mPrewarmedWrappers = new SparseArray<ArrayList<WrapperView>>();
 	private final Context mContext;
-	private Drawable mDivider;
-	private int mDividerHeight;
 	private OnHeaderClickListener mOnHeaderClickListener;
+	// shared by all headers, the position is read from the wrapper the header is in
+	private final OnClickListener mHeaderClickHandler = new OnClickListener() {
+
+		@Override
+		public void onClick(View v) {
+			if (mOnHeaderClickListener == null) {
+				return;
+			}
+			if (v instanceof WrapperView) {
+				// a header drawn by the renderer, there is no header view
+				final int position = ((WrapperView) v).mItemPosition;
+				mOnHeaderClickListener.onHeaderClick(null, position, getHeaderId(position));
+			} else if (v.getParent() instanceof WrapperView) {
+				final int position = ((WrapperView) v.getParent()).mItemPosition;
+				final long headerId = getHeaderId(position);
+				mOnHeaderClickListener.onHeaderClick(v, position, headerId);
+			}
+		}
+	};
+	private StickyHeaderRenderer mHeaderRenderer;
+	private SectionIndex mSectionIndex = new SectionIndex();
+	private boolean mIsDispatchingItemRangeChange;
+	private Executor mSectionIndexExecutor;
+	private SectionIndexBuildTask mSectionIndexBuildTask;
+	// a failed build is only retried once the data changes again
+	private boolean mHasSectionIndexBuildFailed;
+	private OnSectionIndexReadyListener mOnSectionIndexReadyListener;
+	private final SectionIndexBuildTask.Callback mSectionIndexBuildCallback = new SectionIndexBuildTask.Callback() {
+
+		@Override
+		public void onSectionIndexBuilt(SectionIndexBuildTask task, SectionIndex index) {
+			if (task != mSectionIndexBuildTask) {
+				// the data changed while building
+				return;
+			}
+			mSectionIndexBuildTask = null;
+			if (index != null) {
+				mSectionIndex = index;
+				onSectionIndexReady();
+				if (mOnSectionIndexReadyListener != null) {
+					mOnSectionIndexReadyListener.onSectionIndexReady();
+				}
+			} else {
+				mHasSectionIndexBuildFailed = true;
+			}
+		}
+	};
 	private DataSetObserver mDataSetObserver = new DataSetObserver() {
 
 		@Override
 		public void onInvalidated() {
-			mHeaderCache.clear();
+			mHeaderPool.clear();
+			mPrewarmedWrappers.clear();
+			invalidateSectionIndex();
 			AdapterWrapper.super.notifyDataSetInvalidated();
 		}
 		
 		@Override
 		public void onChanged() {
+			invalidateSectionIndex();
 			AdapterWrapper.super.notifyDataSetChanged();
 		}
 	};
@@ -53,15 +112,11 @@ class AdapterWrapper extends BaseAdapter implements StickyListHeadersAdapter {
 			StickyListHeadersAdapter delegate) {
 		this.mContext = context;
 		this.mDelegate = delegate;
+		this.mHeaderPool = new HeaderPool(getHeaderViewTypeCount(), DEFAULT_MAX_RECYCLED_HEADERS);
+		this.mIsCheckableViewType = new boolean[delegate.getViewTypeCount()];
 		delegate.registerDataSetObserver(mDataSetObserver);
 	}
 
-	void setDivider(Drawable divider, int dividerHeight) {
-		this.mDivider = divider;
-		this.mDividerHeight = dividerHeight;
-		notifyDataSetChanged();
-	}
-
 	@Override
 	public boolean areAllItemsEnabled() {
 		return mDelegate.areAllItemsEnabled();
@@ -92,14 +147,30 @@ class AdapterWrapper extends BaseAdapter implements StickyListHeadersAdapter {
 		return mDelegate.hasStableIds();
 	}
 
+	/**
+	 * Every view type of the wrapped adapter is split in two, one for plain
+	 * and one for checkable wrappers, so the list never hands back a wrapper
+	 * of the wrong class.
+	 */
 	@Override
 	public int getItemViewType(int position) {
-		return mDelegate.getItemViewType(position);
+		final int viewType = mDelegate.getItemViewType(position);
+		if (viewType < 0 || viewType >= mIsCheckableViewType.length) {
+			return viewType;
+		}
+		return viewType * 2 + (mIsCheckableViewType[viewType] ? 1 : 0);
 	}
 
 	@Override
 	public int getViewTypeCount() {
-		return mDelegate.getViewTypeCount();
+		return mDelegate.getViewTypeCount() * 2;
+	}
+
+	private void rememberCheckable(int position, View item) {
+		final int viewType = mDelegate.getItemViewType(position);
+		if (viewType >= 0 && viewType < mIsCheckableViewType.length) {
+			mIsCheckableViewType[viewType] = item instanceof Checkable;
+		}
 	}
 
 	@Override
@@ -107,6 +178,28 @@ class AdapterWrapper extends BaseAdapter implements StickyListHeadersAdapter {
 		return mDelegate.isEmpty();
 	}
 
+	/**
+	 * Returns the header view type of {@code position}, always 0 unless the
+	 * wrapped adapter is a {@link StickyListHeadersViewTypeAdapter}.
+	 */
+	int getHeaderViewType(int position) {
+		if (mDelegate instanceof StickyListHeadersViewTypeAdapter) {
+			return ((StickyListHeadersViewTypeAdapter) mDelegate).getHeaderViewType(position);
+		}
+		return 0;
+	}
+
+	int getHeaderViewTypeCount() {
+		if (mDelegate instanceof StickyListHeadersViewTypeAdapter) {
+			return ((StickyListHeadersViewTypeAdapter) mDelegate).getHeaderViewTypeCount();
+		}
+		return 1;
+	}
+
+	HeaderPool getHeaderPool() {
+		return mHeaderPool;
+	}
+
 	/**
 	 * Will recycle header from {@link WrapperView} if it exists
 	 */
@@ -115,7 +208,7 @@ class AdapterWrapper extends BaseAdapter implements StickyListHeadersAdapter {
 		if (header != null) {
 			// reset the headers visibility when adding it to the cache
 			header.setVisibility(View.VISIBLE);
-			mHeaderCache.add(header);
+			mHeaderPool.put(header, wv.mHeaderViewType);
 		}
 	}
 
@@ -123,61 +216,282 @@ class AdapterWrapper extends BaseAdapter implements StickyListHeadersAdapter {
 	 * Get a header view. This optionally pulls a header from the supplied
 	 * {@link WrapperView} and will also recycle the divider if it exists.
 	 */
-	private View configureHeader(WrapperView wv, final int position) {
-		View header = wv.mHeader == null ? popHeader() : wv.mHeader;
+	private View configureHeader(WrapperView wv, int position, int viewType) {
+		View header = wv.mHeader;
+		if (header != null && (wv.mHeaderViewType != viewType || viewType == IGNORE_ITEM_VIEW_TYPE)) {
+			// the recycled header is of another type, save it for a header it fits.
+			// headers of the ignored type are never reused, the pool drops them
+			recycleHeaderIfExists(wv);
+			header = null;
+		}
+		if (header == null && viewType != IGNORE_ITEM_VIEW_TYPE) {
+			header = mHeaderPool.get(viewType);
+		}
 		header = mDelegate.getHeaderView(position, header, wv);
 		if (header == null) {
 			throw new NullPointerException("Header view must not be null.");
 		}
 		//if the header isn't clickable, the listselector will be drawn on top of the header
 		header.setClickable(true);
-		header.setOnClickListener(new OnClickListener() {
-
-			@Override
-			public void onClick(View v) {
-				if(mOnHeaderClickListener != null){
-					long headerId = mDelegate.getHeaderId(position);
-					mOnHeaderClickListener.onHeaderClick(v, position, headerId);
-				}
-			}
-		});
+		header.setOnClickListener(mHeaderClickHandler);
 		return header;
 	}
 
-	private View popHeader() {
-		if(mHeaderCache.size() > 0) {
-			return mHeaderCache.remove(0);
+	// dividers are drawn by the list, the wrappers only make room for them
+	private static int getDividerHeight(ViewGroup parent) {
+		return parent instanceof WrapperViewList ? ((WrapperViewList) parent).getWrapperDividerHeight() : 0;
+	}
+
+	// items bound while their section animates show the same part as the others
+	private float getItemHeightFraction(ViewGroup parent, int position) {
+		if (parent instanceof WrapperViewList && ((WrapperViewList) parent).isAnimatingSection()) {
+			return ((WrapperViewList) parent).getItemHeightFraction(getHeaderId(position));
 		}
-		return null;
+		return 1f;
 	}
 
 	/** Returns {@code true} if the previous position has the same header ID. */
 	private boolean previousPositionHasSameHeader(int position) {
-		return position != 0
-				&& mDelegate.getHeaderId(position) == mDelegate
-						.getHeaderId(position - 1);
+		return !isSectionStart(position);
+	}
+
+	/**
+	 * Build the section index on {@code executor} instead of on the main thread.
+	 * The wrapped adapter's {@link StickyListHeadersAdapter#getHeaderId(int)} is
+	 * then called from the executor's threads.
+	 */
+	void setSectionIndexExecutor(Executor executor) {
+		mSectionIndexExecutor = executor;
+		if (executor != null && !mSectionIndex.isBuilt() && mSectionIndexBuildTask == null) {
+			startSectionIndexBuild();
+		}
+	}
+
+	void setOnSectionIndexReadyListener(OnSectionIndexReadyListener listener) {
+		mOnSectionIndexReadyListener = listener;
+	}
+
+	/**
+	 * Called on the main thread when a background build of the section index
+	 * has finished.
+	 */
+	void onSectionIndexReady() {
+	}
+
+	private void invalidateSectionIndex() {
+		mHasSectionIndexBuildFailed = false;
+		mSectionIndex.invalidate();
+		if (mSectionIndexBuildTask != null) {
+			mSectionIndexBuildTask.cancel();
+			mSectionIndexBuildTask = null;
+		}
+		if (mSectionIndexExecutor != null) {
+			startSectionIndexBuild();
+		}
+	}
+
+	private void startSectionIndexBuild() {
+		mSectionIndexBuildTask = new SectionIndexBuildTask(mDelegate, mSectionIndexBuildCallback);
+		mSectionIndexBuildTask.start(mSectionIndexExecutor);
+	}
+
+	/**
+	 * Returns the section index of the wrapped adapter, building it first if
+	 * the data has changed since it was last used. Returns null while the
+	 * index is being built in the background.
+	 */
+	SectionIndex getSectionIndex() {
+		// also guard against adapters that change their count without notifying
+		if (mSectionIndex.isBuilt() && mSectionIndex.getCount() == mDelegate.getCount()) {
+			return mSectionIndex;
+		}
+		if (mSectionIndexExecutor == null) {
+			mSectionIndex.build(mDelegate);
+			return mSectionIndex;
+		}
+		if (mSectionIndexBuildTask == null && !mHasSectionIndexBuildFailed) {
+			mSectionIndex.invalidate();
+			startSectionIndexBuild();
+		}
+		return null;
+	}
+
+	/**
+	 * Notifies that {@code itemCount} items were inserted at {@code positionStart}.
+	 * Only the sections around the inserted items are updated.
+	 */
+	void notifyItemRangeInserted(int positionStart, int itemCount) {
+		notifyItemRangeReplaced(positionStart, 0, itemCount);
+	}
+
+	/**
+	 * Notifies that the {@code itemCount} items starting at {@code positionStart}
+	 * were removed. Only the sections around the removed items are updated.
+	 */
+	void notifyItemRangeRemoved(int positionStart, int itemCount) {
+		notifyItemRangeReplaced(positionStart, itemCount, 0);
+	}
+
+	/**
+	 * Notifies that the {@code itemCount} items starting at {@code positionStart}
+	 * have changed, possibly including their header ids.
+	 */
+	void notifyItemRangeChanged(int positionStart, int itemCount) {
+		notifyItemRangeReplaced(positionStart, itemCount, itemCount);
+	}
+
+	private void notifyItemRangeReplaced(int positionStart, int removedCount, int insertedCount) {
+		mHasSectionIndexBuildFailed = false;
+		if (mSectionIndexBuildTask != null) {
+			// the background build has read stale data, start over
+			invalidateSectionIndex();
+		} else {
+			mSectionIndex.replaceRange(mDelegate, positionStart, removedCount, insertedCount);
+		}
+		notifyDataSetChangedKeepingSectionIndex();
+	}
+
+	/**
+	 * Notifies the observers of this adapter only, the data itself has not
+	 * changed in a way that invalidates the section index.
+	 */
+	void notifyDataSetChangedKeepingSectionIndex() {
+		// bypass our own observer on the delegate, it would throw the index away
+		mIsDispatchingItemRangeChange = true;
+		try {
+			super.notifyDataSetChanged();
+		} finally {
+			mIsDispatchingItemRangeChange = false;
+		}
+	}
+
+	/**
+	 * Returns {@code true} while observers are being notified of a change
+	 * which was reported as a range of items.
+	 */
+	boolean isDispatchingItemRangeChange() {
+		return mIsDispatchingItemRangeChange;
+	}
+
+	/** Returns {@code true} if {@code position} has a different header ID than the previous position. */
+	boolean isSectionStart(int position) {
+		final SectionIndex index = getSectionIndex();
+		if (index == null) {
+			// still building, compare with the previous position instead
+			return position == 0 || mDelegate.getHeaderId(position) != mDelegate.getHeaderId(position - 1);
+		}
+		return index.isSectionStart(position);
 	}
 
 	@Override
 	public WrapperView getView(int position, View convertView, ViewGroup parent) {
-		WrapperView wv = (convertView == null) ? new WrapperView(mContext) : (WrapperView) convertView;
+		WrapperView wv = (convertView == null) ? obtainWrapperView(position) : (WrapperView) convertView;
 		View item = mDelegate.getView(position, wv.mItem, parent);
+		rememberCheckable(position, item);
+		if ((item instanceof Checkable) != (wv instanceof CheckableWrapperView)) {
+			// only until the first item of this view type has been seen
+			wv = replaceWrapperView(wv, item);
+		}
 		View header = null;
-		if (previousPositionHasSameHeader(position)) {
+		int headerViewType = 0;
+		final boolean hasHeader = !previousPositionHasSameHeader(position);
+		if (!hasHeader || mHeaderRenderer != null) {
 			recycleHeaderIfExists(wv);
 		} else {
-			header = configureHeader(wv, position);
+			headerViewType = getHeaderViewType(position);
+			header = configureHeader(wv, position, headerViewType);
 		}
-		if((item instanceof Checkable) && !(wv instanceof CheckableWrapperView)) {
-			// Need to create Checkable subclass of WrapperView for ListView to work correctly
-			wv = new CheckableWrapperView(mContext);
-		} else if(!(item instanceof Checkable) && (wv instanceof CheckableWrapperView)) {
-			wv = new WrapperView(mContext);
+		wv.update(item, header, getDividerHeight(parent));
+		if (hasHeader && mHeaderRenderer != null) {
+			wv.updateRenderedHeader(mHeaderRenderer, getHeaderId(position));
+			wv.mRenderedHeaderClickListener = mHeaderClickHandler;
+		} else {
+			wv.updateRenderedHeader(null, 0);
 		}
-		wv.update(item, header, mDivider, mDividerHeight);
+		wv.mHeaderViewType = headerViewType;
+		wv.mItemPosition = position;
+		wv.setItemHeightFraction(getItemHeightFraction(parent, position));
 		return wv;
 	}
 
+	/**
+	 * Need to create Checkable subclass of WrapperView for ListView to work
+	 * correctly. The header of the old wrapper is detached and recycled.
+	 */
+	private WrapperView replaceWrapperView(WrapperView wv, View item) {
+		final View header = wv.mHeader;
+		if (header != null) {
+			recycleHeaderIfExists(wv);
+			wv.removeView(header);
+			wv.mHeader = null;
+		}
+		return (item instanceof Checkable) ? new CheckableWrapperView(mContext) : new WrapperView(mContext);
+	}
+
+	/**
+	 * Returns a wrapper created by {@link #prewarmItem(int, ViewGroup)} whose
+	 * item can be converted for {@code position}, or a new empty wrapper.
+	 */
+	private WrapperView obtainWrapperView(int position) {
+		final ArrayList<WrapperView> prewarmed = mPrewarmedWrappers.get(getItemViewType(position));
+		if (prewarmed != null && !prewarmed.isEmpty()) {
+			return prewarmed.remove(prewarmed.size() - 1);
+		}
+		return new WrapperView(mContext);
+	}
+
+	/**
+	 * Creates a wrapper and item view for {@code position} ahead of time. It is
+	 * handed out the next time the list needs a new view of the same type.
+	 */
+	void prewarmItem(int position, ViewGroup parent) {
+		if (mDelegate.getItemViewType(position) == IGNORE_ITEM_VIEW_TYPE) {
+			return;
+		}
+		final View item = mDelegate.getView(position, null, parent);
+		rememberCheckable(position, item);
+		final int viewType = getItemViewType(position);
+		final WrapperView wv = (item instanceof Checkable) ? new CheckableWrapperView(mContext) : new WrapperView(mContext);
+		wv.update(item, null, getDividerHeight(parent));
+		ArrayList<WrapperView> prewarmed = mPrewarmedWrappers.get(viewType);
+		if (prewarmed == null) {
+			prewarmed = new ArrayList<WrapperView>();
+			mPrewarmedWrappers.put(viewType, prewarmed);
+		}
+		prewarmed.add(wv);
+	}
+
+	/**
+	 * Creates a header for {@code position} ahead of time and adds it to the
+	 * header pool.
+	 */
+	void prewarmHeader(int position, ViewGroup parent) {
+		if (mHeaderRenderer != null || getHeaderViewType(position) == IGNORE_ITEM_VIEW_TYPE) {
+			// drawn headers have no views to create, ignored ones are never pooled
+			return;
+		}
+		final View header = mDelegate.getHeaderView(position, null, parent);
+		if (header == null) {
+			throw new NullPointerException("Header view must not be null.");
+		}
+		mHeaderPool.put(header, getHeaderViewType(position));
+	}
+
+	/**
+	 * Draw headers with {@code renderer} instead of asking the wrapped adapter
+	 * for header views. The list has to rebind its views after changing this.
+	 */
+	void setHeaderRenderer(StickyHeaderRenderer renderer) {
+		mHeaderRenderer = renderer;
+		if (renderer != null) {
+			mHeaderPool.clear();
+		}
+	}
+
+	StickyHeaderRenderer getHeaderRenderer() {
+		return mHeaderRenderer;
+	}
+
 	public void setOnHeaderClickListener(OnHeaderClickListener onHeaderClickListener){
 		this.mOnHeaderClickListener = onHeaderClickListener;
 	}
@@ -219,7 +533,11 @@ class AdapterWrapper extends BaseAdapter implements StickyListHeadersAdapter {
 
 	@Override
 	public long getHeaderId(int position) {
-		return mDelegate.getHeaderId(position);
+		final SectionIndex index = getSectionIndex();
+		if (index == null || position < 0 || position >= index.getCount()) {
+			return mDelegate.getHeaderId(position);
+		}
+		return index.getHeaderId(position);
 	}
 
 }
@@ -5,67 +5,187 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 
-import java.util.ArrayList;
 import java.util.List;
 
 
 /**
  * @author lsjwzh
  */
- class ExpandableStickyListHeadersAdapter extends BaseAdapter implements StickyListHeadersAdapter {
+ class ExpandableStickyListHeadersAdapter extends BaseAdapter implements StickyListHeadersViewTypeAdapter,
+        StickyListHeadersSectionTitleAdapter {
 
     private final StickyListHeadersAdapter mInnerAdapter;
-    DualHashMap<View,Long> mViewToItemIdMap = new DualHashMap<View, Long>();
-    DistinctMultiHashMap<Integer,View> mHeaderIdToViewMap = new DistinctMultiHashMap<Integer, View>();
-    List<Long> mCollapseHeaderIds = new ArrayList<Long>();
+    private final ItemViewTracker mItemViewTracker = new ItemViewTracker();
+    LongHashSet mCollapseHeaderIds = new LongHashSet();
+
+    // only used while collapsed sections are removed from the adapter
+    private boolean mRemoveCollapsedItems;
+    private final SectionIndex mSectionIndex = new SectionIndex();
+    private final SectionOffsetTable mOffsetTable = new SectionOffsetTable();
+    private SectionOffsetTable.OnRangeChangedListener mOnFoldedRangeChangedListener;
+    private final SectionOffsetTable.OnRangeChangedListener mOffsetTableListener = new SectionOffsetTable.OnRangeChangedListener() {
+        @Override
+        public void onRangeChanged(int positionStart, int removedCount, int insertedCount) {
+            if (mOnFoldedRangeChangedListener != null) {
+                mOnFoldedRangeChangedListener.onRangeChanged(positionStart, removedCount, insertedCount);
+            } else {
+                notifyDataSetChanged();
+            }
+        }
+    };
+
+    private DataSetObserver mDataSetObserver = new DataSetObserver() {
+
+        @Override
+        public void onInvalidated() {
+            mItemViewTracker.clear();
+            mSectionIndex.invalidate();
+            mOffsetTable.invalidate();
+            notifyDataSetInvalidated();
+        }
+
+        @Override
+        public void onChanged() {
+            mSectionIndex.invalidate();
+            mOffsetTable.invalidate();
+            notifyDataSetChanged();
+        }
+    };
 
     ExpandableStickyListHeadersAdapter(StickyListHeadersAdapter innerAdapter){
         this.mInnerAdapter = innerAdapter;
+        innerAdapter.registerDataSetObserver(mDataSetObserver);
+    }
+
+    /**
+     * @param removeCollapsedItems if true collapsed sections only report their
+     * first row, so the list neither binds nor lays out the hidden rows.
+     * Otherwise all rows are kept and the collapsed ones are set to GONE.
+     */
+    void setRemoveCollapsedItems(boolean removeCollapsedItems) {
+        if (mRemoveCollapsedItems != removeCollapsedItems) {
+            mRemoveCollapsedItems = removeCollapsedItems;
+            mOffsetTable.invalidate();
+            notifyDataSetChanged();
+        }
+    }
+
+    boolean isRemovingCollapsedItems() {
+        return mRemoveCollapsedItems;
+    }
+
+    /**
+     * @param listener told about the rows which appear or disappear when a
+     * section is expanded or collapsed while collapsed items are removed. If
+     * none is set the whole data set is reported as changed instead.
+     */
+    void setOnFoldedRangeChangedListener(SectionOffsetTable.OnRangeChangedListener listener) {
+        mOnFoldedRangeChangedListener = listener;
+    }
+
+    /**
+     * Forgets the sections of the inner adapter after a range of its items
+     * was reported as changed directly to the list.
+     *
+     * @return true if the positions of this adapter are those of the inner
+     * adapter, so the range can be passed on as is. Otherwise the whole data
+     * set has been reported as changed.
+     */
+    boolean onInnerItemRangeChanged() {
+        mSectionIndex.invalidate();
+        mOffsetTable.invalidate();
+        if (!mRemoveCollapsedItems || mCollapseHeaderIds.isEmpty()) {
+            return true;
+        }
+        notifyDataSetChanged();
+        return false;
+    }
+
+    /**
+     * Maps a position reported to the list to the position in the inner adapter.
+     */
+    int toInnerPosition(int position) {
+        if (!mRemoveCollapsedItems || mCollapseHeaderIds.isEmpty()) {
+            return position;
+        }
+        return getOffsetTable().toInnerPosition(position);
+    }
+
+    private SectionIndex getSectionIndex() {
+        if (!mSectionIndex.isBuilt() || mSectionIndex.getCount() != mInnerAdapter.getCount()) {
+            mSectionIndex.build(mInnerAdapter);
+        }
+        return mSectionIndex;
+    }
+
+    private SectionOffsetTable getOffsetTable() {
+        getSectionIndex();
+        if (!mOffsetTable.isBuiltFor(mSectionIndex)) {
+            mOffsetTable.build(mSectionIndex, mCollapseHeaderIds);
+        }
+        return mOffsetTable;
     }
 
     @Override
     public View getHeaderView(int position, View convertView, ViewGroup parent) {
-        return mInnerAdapter.getHeaderView(position,convertView,parent);
+        return mInnerAdapter.getHeaderView(toInnerPosition(position),convertView,parent);
     }
 
     @Override
     public long getHeaderId(int position) {
-        return mInnerAdapter.getHeaderId(position);
+        return mInnerAdapter.getHeaderId(toInnerPosition(position));
     }
 
     @Override
-    public boolean areAllItemsEnabled() {
-        return mInnerAdapter.areAllItemsEnabled();
+    public int getHeaderViewType(int position) {
+        if (mInnerAdapter instanceof StickyListHeadersViewTypeAdapter) {
+            return ((StickyListHeadersViewTypeAdapter) mInnerAdapter).getHeaderViewType(toInnerPosition(position));
+        }
+        return 0;
     }
 
     @Override
-    public boolean isEnabled(int i) {
-        return mInnerAdapter.isEnabled(i);
+    public int getHeaderViewTypeCount() {
+        if (mInnerAdapter instanceof StickyListHeadersViewTypeAdapter) {
+            return ((StickyListHeadersViewTypeAdapter) mInnerAdapter).getHeaderViewTypeCount();
+        }
+        return 1;
     }
 
     @Override
-    public void registerDataSetObserver(DataSetObserver dataSetObserver) {
-        mInnerAdapter.registerDataSetObserver(dataSetObserver);
+    public Object getSectionTitle(int position) {
+        if (mInnerAdapter instanceof StickyListHeadersSectionTitleAdapter) {
+            return ((StickyListHeadersSectionTitleAdapter) mInnerAdapter).getSectionTitle(toInnerPosition(position));
+        }
+        return getHeaderId(position);
     }
 
     @Override
-    public void unregisterDataSetObserver(DataSetObserver dataSetObserver) {
-        mInnerAdapter.unregisterDataSetObserver(dataSetObserver);
+    public boolean areAllItemsEnabled() {
+        return mInnerAdapter.areAllItemsEnabled();
+    }
+
+    @Override
+    public boolean isEnabled(int i) {
+        return mInnerAdapter.isEnabled(toInnerPosition(i));
     }
 
     @Override
     public int getCount() {
-        return mInnerAdapter.getCount();
+        if (!mRemoveCollapsedItems || mCollapseHeaderIds.isEmpty()) {
+            return mInnerAdapter.getCount();
+        }
+        return getOffsetTable().getCount();
     }
 
     @Override
     public Object getItem(int i) {
-        return mInnerAdapter.getItem(i);
+        return mInnerAdapter.getItem(toInnerPosition(i));
     }
 
     @Override
     public long getItemId(int i) {
-        return mInnerAdapter.getItemId(i);
+        return mInnerAdapter.getItemId(toInnerPosition(i));
     }
 
     @Override
@@ -75,10 +195,11 @@ import java.util.List;
 
     @Override
     public View getView(int i, View view, ViewGroup viewGroup) {
-        View convertView = mInnerAdapter.getView(i,view,viewGroup);
-        mViewToItemIdMap.put(convertView, getItemId(i));
-        mHeaderIdToViewMap.add((int) getHeaderId(i), convertView);
-        if(mCollapseHeaderIds.contains(getHeaderId(i))){
+        final int innerPosition = toInnerPosition(i);
+        View convertView = mInnerAdapter.getView(innerPosition,view,viewGroup);
+        long headerId = mInnerAdapter.getHeaderId(innerPosition);
+        mItemViewTracker.track(convertView, mInnerAdapter.getItemId(innerPosition), headerId);
+        if(mCollapseHeaderIds.contains(headerId)){
             convertView.setVisibility(View.GONE);
         }else {
             convertView.setVisibility(View.VISIBLE);
@@ -88,7 +209,7 @@ import java.util.List;
 
     @Override
     public int getItemViewType(int i) {
-        return mInnerAdapter.getItemViewType(i);
+        return mInnerAdapter.getItemViewType(toInnerPosition(i));
     }
 
     @Override
@@ -102,7 +223,7 @@ import java.util.List;
     }
 
     public List<View> getItemViewsByHeaderId(long headerId){
-        return mHeaderIdToViewMap.get((int) headerId);
+        return mItemViewTracker.getViewsByHeaderId(headerId);
     }
 
     public boolean isHeaderCollapsed(long headerId){
@@ -110,22 +231,97 @@ import java.util.List;
     }
 
     public void expand(long headerId) {
-        if(isHeaderCollapsed(headerId)){
-            mCollapseHeaderIds.remove((Object) headerId);
-        }
+        setCollapsed(headerId, false);
     }
 
     public void collapse(long headerId) {
-        if(!isHeaderCollapsed(headerId)){
+        setCollapsed(headerId, true);
+    }
+
+    private void setCollapsed(long headerId, boolean collapsed) {
+        if (mCollapseHeaderIds.contains(headerId) == collapsed) {
+            return;
+        }
+        if (!mRemoveCollapsedItems) {
+            if (collapsed) {
+                mCollapseHeaderIds.add(headerId);
+            } else {
+                mCollapseHeaderIds.remove(headerId);
+            }
+            return;
+        }
+        // patch the table of the state before the change, only the rows of
+        // the toggled sections are reported to the list
+        final SectionOffsetTable table = getOffsetTable();
+        if (collapsed) {
             mCollapseHeaderIds.add(headerId);
+        } else {
+            mCollapseHeaderIds.remove(headerId);
+        }
+        table.setCollapsed(headerId, collapsed, mOffsetTableListener);
+    }
+
+    public long[] getCollapsedHeaderIds() {
+        return mCollapseHeaderIds.toArray();
+    }
+
+    public void expandAll() {
+        if (!mCollapseHeaderIds.isEmpty()) {
+            mCollapseHeaderIds.clear();
+            onCollapsedHeaderIdsChanged();
+        }
+    }
+
+    public void collapseAll() {
+        final SectionIndex index = getSectionIndex();
+        boolean changed = false;
+        for (int section = 0; section < index.getSectionCount(); section++) {
+            changed |= mCollapseHeaderIds.add(index.getHeaderIdForSection(section));
+        }
+        if (changed) {
+            onCollapsedHeaderIdsChanged();
+        }
+    }
+
+    public void setCollapsedHeaderIds(long[] headerIds) {
+        mCollapseHeaderIds.clear();
+        for (long headerId : headerIds) {
+            mCollapseHeaderIds.add(headerId);
+        }
+        onCollapsedHeaderIdsChanged();
+    }
+
+    public void setCollapsedHeaderIds(ExpandableStickyListHeadersListView.ICollapseFilter filter) {
+        final SectionIndex index = getSectionIndex();
+        mCollapseHeaderIds.clear();
+        for (int section = 0; section < index.getSectionCount(); section++) {
+            final long headerId = index.getHeaderIdForSection(section);
+            if (filter.shouldCollapse(headerId)) {
+                mCollapseHeaderIds.add(headerId);
+            }
+        }
+        onCollapsedHeaderIdsChanged();
+    }
+
+    /**
+     * Applies a bulk change of the collapsed header ids with a single relayout.
+     */
+    private void onCollapsedHeaderIdsChanged() {
+        if (mRemoveCollapsedItems) {
+            mOffsetTable.invalidate();
+            notifyDataSetChanged();
+        } else {
+            // the views only change visibility, the layout requests they make
+            // are handled together in the next layout pass
+            mItemViewTracker.updateVisibilities(mCollapseHeaderIds);
         }
     }
 
     public View findViewByItemId(long itemId){
-         return mViewToItemIdMap.getKey(itemId);
+        return mItemViewTracker.findViewByItemId(itemId);
     }
 
     public long findItemIdByView(View view){
-        return mViewToItemIdMap.get(view);
+        return mItemViewTracker.findItemIdByView(view);
     }
 }
@@ -3,6 +3,7 @@ package se.emilsjolander.stickylistheaders;
 import android.content.Context;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.ViewParent;
 
 import java.util.List;
 
@@ -15,10 +16,45 @@ public class ExpandableStickyListHeadersListView extends StickyListHeadersListVi
         public void executeAnim(View target,int animType);
     }
 
+    /**
+     * Decides which sections are collapsed in
+     * {@link #setCollapsedHeaderIds(ICollapseFilter)}.
+     */
+    public interface ICollapseFilter{
+        public boolean shouldCollapse(long headerId);
+    }
+
     public final static int ANIMATION_COLLAPSE = 1;
     public final static int ANIMATION_EXPAND = 0;
 
     ExpandableStickyListHeadersAdapter mExpandableStickyListHeadersAdapter;
+    private boolean mRemoveCollapsedItems;
+    private boolean mSectionAnimationEnabled;
+
+    // only the rows of a toggled section are reported, not the whole data set
+    private final SectionOffsetTable.OnRangeChangedListener mFoldedRangeChangedListener = new SectionOffsetTable.OnRangeChangedListener() {
+        @Override
+        public void onRangeChanged(int positionStart, int removedCount, int insertedCount) {
+            if(removedCount>0){
+                ExpandableStickyListHeadersListView.super.notifyItemRangeRemoved(positionStart, removedCount);
+            }
+            if(insertedCount>0){
+                ExpandableStickyListHeadersListView.super.notifyItemRangeInserted(positionStart, insertedCount);
+            }
+        }
+    };
+
+    private final WrapperViewList.OnSectionAnimationEndListener mSectionCollapseEndListener = new WrapperViewList.OnSectionAnimationEndListener() {
+        @Override
+        public void onSectionAnimationEnd(long headerId, boolean collapsed) {
+            // hide the items once nothing of them is shown, unless expanded again meanwhile
+            if(collapsed && mExpandableStickyListHeadersAdapter.isHeaderCollapsed(headerId)){
+                for (View view : getShownItemViewsByHeaderId(headerId)) {
+                    view.setVisibility(GONE);
+                }
+            }
+        }
+    };
 
 
 
@@ -54,25 +90,85 @@ public class ExpandableStickyListHeadersListView extends StickyListHeadersListVi
     @Override
     public void setAdapter(StickyListHeadersAdapter adapter) {
         mExpandableStickyListHeadersAdapter = new ExpandableStickyListHeadersAdapter(adapter);
+        mExpandableStickyListHeadersAdapter.setRemoveCollapsedItems(mRemoveCollapsedItems);
+        mExpandableStickyListHeadersAdapter.setOnFoldedRangeChangedListener(mFoldedRangeChangedListener);
         super.setAdapter(mExpandableStickyListHeadersAdapter);
     }
 
+    // the positions of the range are those of the wrapped adapter, they only
+    // match the list's positions while no collapsed rows are removed
+
+    @Override
+    public void notifyItemRangeInserted(int positionStart, int itemCount) {
+        if(mExpandableStickyListHeadersAdapter==null
+                || mExpandableStickyListHeadersAdapter.onInnerItemRangeChanged()){
+            super.notifyItemRangeInserted(positionStart, itemCount);
+        }
+    }
+
+    @Override
+    public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+        if(mExpandableStickyListHeadersAdapter==null
+                || mExpandableStickyListHeadersAdapter.onInnerItemRangeChanged()){
+            super.notifyItemRangeRemoved(positionStart, itemCount);
+        }
+    }
+
+    @Override
+    public void notifyItemRangeChanged(int positionStart, int itemCount) {
+        if(mExpandableStickyListHeadersAdapter==null
+                || mExpandableStickyListHeadersAdapter.onInnerItemRangeChanged()){
+            super.notifyItemRangeChanged(positionStart, itemCount);
+        }
+    }
+
+    /**
+     * @return the view the list shows the item in, or null if the item is not shown
+     */
     public View findViewByItemId(long itemId){
-        return mExpandableStickyListHeadersAdapter.findViewByItemId(itemId);
+        View view = mExpandableStickyListHeadersAdapter.findViewByItemId(itemId);
+        return view != null && isShownByList(view) ? view : null;
     }
 
     public long findItemIdByView(View view){
         return mExpandableStickyListHeadersAdapter.findItemIdByView(view);
     }
 
+    // recycled views are still tracked by the adapter, they get the right
+    // visibility when they are bound again
+    private List<View> getShownItemViewsByHeaderId(long headerId) {
+        List<View> itemViews = mExpandableStickyListHeadersAdapter.getItemViewsByHeaderId(headerId);
+        for (int i = itemViews.size() - 1; i >= 0; i--) {
+            if (!isShownByList(itemViews.get(i))) {
+                itemViews.remove(i);
+            }
+        }
+        return itemViews;
+    }
+
+    private boolean isShownByList(View itemView) {
+        // item views are wrapped before they are added to the list
+        ViewParent wrapper = itemView.getParent();
+        return wrapper instanceof WrapperView && wrapper.getParent() == getWrappedList();
+    }
+
     public void expand(long headerId) {
         if(!mExpandableStickyListHeadersAdapter.isHeaderCollapsed(headerId)){
             return;
         }
         mExpandableStickyListHeadersAdapter.expand(headerId);
+        if(mRemoveCollapsedItems){
+            // the adapter already reported the rows that came back
+            return;
+        }
         //find and expand views in group
-        List<View> itemViews = mExpandableStickyListHeadersAdapter.getItemViewsByHeaderId(headerId);
-        if(itemViews==null){
+        List<View> itemViews = getShownItemViewsByHeaderId(headerId);
+        if(mSectionAnimationEnabled){
+            // the items are shown at once, the list animates how much of them is visible
+            for (View view : itemViews) {
+                view.setVisibility(VISIBLE);
+            }
+            animateSection(headerId, false, null);
             return;
         }
         for (View view : itemViews) {
@@ -85,20 +181,126 @@ public class ExpandableStickyListHeadersListView extends StickyListHeadersListVi
             return;
         }
         mExpandableStickyListHeadersAdapter.collapse(headerId);
-        //find and hide views with the same header
-        List<View> itemViews = mExpandableStickyListHeadersAdapter.getItemViewsByHeaderId(headerId);
-        if(itemViews==null){
+        if(mRemoveCollapsedItems){
+            return;
+        }
+        if(mSectionAnimationEnabled){
+            animateSection(headerId, true, mSectionCollapseEndListener);
             return;
         }
+        //find and hide views with the same header
+        List<View> itemViews = getShownItemViewsByHeaderId(headerId);
         for (View view : itemViews) {
             animateView(view, ANIMATION_COLLAPSE);
         }
     }
 
+    /**
+     * Expands every collapsed section at once. Unlike {@link #expand(long)}
+     * no animation is run, the list is laid out once for the whole change.
+     */
+    public void expandAll() {
+        mExpandableStickyListHeadersAdapter.expandAll();
+    }
+
+    /**
+     * Collapses every section at once. Unlike {@link #collapse(long)} no
+     * animation is run, the list is laid out once for the whole change.
+     */
+    public void collapseAll() {
+        mExpandableStickyListHeadersAdapter.collapseAll();
+    }
+
+    /**
+     * Collapses exactly the sections with the given header ids and expands
+     * all others, with a single layout and no animation.
+     *
+     * @param headerIds the header ids of the sections to collapse.
+     */
+    public void setCollapsedHeaderIds(long[] headerIds) {
+        mExpandableStickyListHeadersAdapter.setCollapsedHeaderIds(headerIds);
+    }
+
+    /**
+     * Asks the filter about the header id of every section and collapses the
+     * accepted sections while expanding all others, with a single layout and
+     * no animation.
+     *
+     * @param filter decides for each header id whether its section is collapsed.
+     */
+    public void setCollapsedHeaderIds(ICollapseFilter filter) {
+        mExpandableStickyListHeadersAdapter.setCollapsedHeaderIds(filter);
+    }
+
+    /**
+     * @return the header ids of all collapsed sections, in no particular order.
+     */
+    public long[] getCollapsedHeaderIds() {
+        return mExpandableStickyListHeadersAdapter.getCollapsedHeaderIds();
+    }
+
     public boolean isHeaderCollapsed(long headerId){
         return  mExpandableStickyListHeadersAdapter.isHeaderCollapsed(headerId);
     }
 
+    /**
+     * By default the rows of a collapsed section stay in the list and are set
+     * to GONE, so they are still bound, measured and laid out. When this is
+     * enabled collapsed sections are removed from the adapter instead and only
+     * their header is left, which makes collapsed content free to scroll past.
+     * The {@link IAnimationExecutor} is not used in this mode.
+     * <p>
+     * While collapsed sections are removed, every position the list hands out
+     * or takes is a position among the rows still shown, not a position of
+     * your adapter. This includes the positions passed to item and header
+     * click listeners, {@link #setSelection(int)} and
+     * {@link #getFirstVisiblePosition()}. Use {@link #getAdapterPosition(int)}
+     * to map such a position to your adapter.
+     *
+     * @param removeCollapsedItems true to remove the rows of collapsed sections.
+     */
+    public void setRemoveCollapsedItems(boolean removeCollapsedItems) {
+        mRemoveCollapsedItems = removeCollapsedItems;
+        if(mExpandableStickyListHeadersAdapter!=null){
+            mExpandableStickyListHeadersAdapter.setRemoveCollapsedItems(removeCollapsedItems);
+        }
+    }
+
+    public boolean isRemovingCollapsedItems() {
+        return mRemoveCollapsedItems;
+    }
+
+    /**
+     * @param position a position of the list, as handed to click listeners.
+     * @return the position of the same row in the adapter passed to
+     * {@link #setAdapter(StickyListHeadersAdapter)}. The positions only differ
+     * while collapsed items are removed, see {@link #setRemoveCollapsedItems(boolean)}.
+     */
+    public int getAdapterPosition(int position) {
+        if(mExpandableStickyListHeadersAdapter==null){
+            return position;
+        }
+        return mExpandableStickyListHeadersAdapter.toInnerPosition(position);
+    }
+
+    /**
+     * Animates expanding and collapsing a section as a whole instead of
+     * running the {@link IAnimationExecutor} for each of its items. The list
+     * animates one value for the section and lays out once per frame, so large
+     * sections animate as smoothly as small ones. Touching or flinging the list
+     * finishes the animation at once. Has no effect while collapsed items are
+     * removed, see {@link #setRemoveCollapsedItems(boolean)}.
+     *
+     * @param sectionAnimationEnabled true to animate whole sections.
+     */
+    public void setSectionAnimationEnabled(boolean sectionAnimationEnabled) {
+        mSectionAnimationEnabled = sectionAnimationEnabled;
+    }
+
+    public boolean isSectionAnimationEnabled() {
+        return mSectionAnimationEnabled;
+    }
+
     public void setAnimExecutor(IAnimationExecutor animExecutor) {
         this.mDefaultAnimExecutor = animExecutor;
     }
@@ -0,0 +1,121 @@
+package se.emilsjolander.stickylistheaders;
+
+import android.view.View;
+
+/**
+ * Keeps detached header views around for reuse, one bounded stack per header
+ * view type so a header is only reused for a header of the same type.
+ */
+class HeaderPool {
+
+	private View[][] mHeaders;
+	private int[] mSizes;
+	private int mMaxPerType;
+
+	/* --- Stats --- */
+	private int mHitCount;
+	private int mMissCount;
+	private int mEvictionCount;
+
+	HeaderPool(int viewTypeCount, int maxPerType) {
+		mMaxPerType = maxPerType;
+		mHeaders = new View[Math.max(viewTypeCount, 1)][];
+		mSizes = new int[mHeaders.length];
+	}
+
+	/**
+	 * Adds a header to the pool of its type. Headers with a type outside of
+	 * the pool are dropped, headers which do not fit in a full pool are
+	 * dropped and counted as evicted.
+	 */
+	void put(View header, int viewType) {
+		if (viewType < 0 || viewType >= mHeaders.length) {
+			return;
+		}
+		View[] headers = mHeaders[viewType];
+		if (headers == null || headers.length < mMaxPerType) {
+			headers = mHeaders[viewType] = grow(headers, mSizes[viewType], mMaxPerType);
+		}
+		final int size = mSizes[viewType];
+		if (size < mMaxPerType) {
+			headers[size] = header;
+			mSizes[viewType] = size + 1;
+		} else {
+			mEvictionCount++;
+		}
+	}
+
+	/** Removes and returns a header of {@code viewType}, or null if there is none. */
+	View get(int viewType) {
+		if (viewType < 0 || viewType >= mHeaders.length || mSizes[viewType] == 0) {
+			mMissCount++;
+			return null;
+		}
+		final int size = mSizes[viewType] - 1;
+		final View header = mHeaders[viewType][size];
+		mHeaders[viewType][size] = null;
+		mSizes[viewType] = size;
+		mHitCount++;
+		return header;
+	}
+
+	/**
+	 * Sets how many headers are kept per header view type, headers above the
+	 * new limit are evicted.
+	 */
+	void setMaxPerType(int maxPerType) {
+		if (maxPerType < 0) {
+			throw new IllegalArgumentException("maxPerType must not be negative");
+		}
+		mMaxPerType = maxPerType;
+		trimToSize(maxPerType);
+	}
+
+	int getMaxPerType() {
+		return mMaxPerType;
+	}
+
+	/** Evicts headers until at most {@code maxPerType} of every type are left. */
+	void trimToSize(int maxPerType) {
+		for (int i = 0; i < mHeaders.length; i++) {
+			while (mSizes[i] > maxPerType) {
+				mSizes[i]--;
+				mHeaders[i][mSizes[i]] = null;
+				mEvictionCount++;
+			}
+		}
+	}
+
+	/** Drops all headers without counting them as evicted. */
+	void clear() {
+		for (int i = 0; i < mHeaders.length; i++) {
+			if (mHeaders[i] != null) {
+				for (int j = 0; j < mSizes[i]; j++) {
+					mHeaders[i][j] = null;
+				}
+			}
+			mSizes[i] = 0;
+		}
+	}
+
+	int getHitCount() {
+		return mHitCount;
+	}
+
+	int getMissCount() {
+		return mMissCount;
+	}
+
+	int getEvictionCount() {
+		return mEvictionCount;
+	}
+
+	private static View[] grow(View[] headers, int size, int capacity) {
+		final View[] grown = new View[capacity];
+		if (headers != null) {
+			System.arraycopy(headers, 0, grown, 0, size);
+		}
+		return grown;
+	}
+
+}
@@ -0,0 +1,107 @@
+package se.emilsjolander.stickylistheaders;
+
+import android.view.View;
+import android.widget.AdapterView;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * remembers what each item view was last bound to. views are held weakly and
+ * every view has exactly one entry, so the tracker never grows beyond the
+ * views the list keeps visible or recycled. a view which is bound again is
+ * dropped from the lookups of its old item and header, which find views
+ * without going through all of them
+ */
+class ItemViewTracker {
+
+    private static class Binding {
+        long itemId;
+        long headerId;
+    }
+
+    private final WeakHashMap<View, Binding> mBindings = new WeakHashMap<View, Binding>();
+    private final HashMap<Long, WeakReference<View>> mViewsByItemId = new HashMap<Long, WeakReference<View>>();
+    // the values are used as weak sets of views
+    private final HashMap<Long, WeakHashMap<View, Boolean>> mViewsByHeaderId = new HashMap<Long, WeakHashMap<View, Boolean>>();
+
+    /**
+     * records that {@code view} now shows the item {@code itemId},
+     * replacing whatever the view was bound to before
+     */
+    void track(View view, long itemId, long headerId) {
+        Binding binding = mBindings.get(view);
+        if (binding == null) {
+            binding = new Binding();
+            mBindings.put(view, binding);
+        } else {
+            if (binding.itemId == itemId && binding.headerId == headerId) {
+                return;
+            }
+            untrack(view, binding);
+        }
+        binding.itemId = itemId;
+        binding.headerId = headerId;
+        mViewsByItemId.put(itemId, new WeakReference<View>(view));
+        WeakHashMap<View, Boolean> views = mViewsByHeaderId.get(headerId);
+        if (views == null) {
+            views = new WeakHashMap<View, Boolean>();
+            mViewsByHeaderId.put(headerId, views);
+        }
+        views.put(view, Boolean.TRUE);
+    }
+
+    private void untrack(View view, Binding binding) {
+        WeakReference<View> itemView = mViewsByItemId.get(binding.itemId);
+        if (itemView != null && itemView.get() == view) {
+            mViewsByItemId.remove(binding.itemId);
+        }
+        WeakHashMap<View, Boolean> views = mViewsByHeaderId.get(binding.headerId);
+        if (views != null) {
+            views.remove(view);
+            if (views.isEmpty()) {
+                mViewsByHeaderId.remove(binding.headerId);
+            }
+        }
+    }
+
+    List<View> getViewsByHeaderId(long headerId) {
+        WeakHashMap<View, Boolean> views = mViewsByHeaderId.get(headerId);
+        return views == null ? new ArrayList<View>() : new ArrayList<View>(views.keySet());
+    }
+
+    View findViewByItemId(long itemId) {
+        WeakReference<View> view = mViewsByItemId.get(itemId);
+        return view != null ? view.get() : null;
+    }
+
+    /**
+     * @return the id of the item {@code view} was last bound to, or
+     * {@link AdapterView#INVALID_ROW_ID} if the view is not tracked
+     */
+    long findItemIdByView(View view) {
+        Binding binding = mBindings.get(view);
+        return binding != null ? binding.itemId : AdapterView.INVALID_ROW_ID;
+    }
+
+    /**
+     * shows or hides every tracked view depending on whether its header is
+     * collapsed, without waiting for the views to be bound again
+     */
+    void updateVisibilities(LongHashSet collapsedHeaderIds) {
+        for (Map.Entry<View, Binding> entry : mBindings.entrySet()) {
+            entry.getKey().setVisibility(collapsedHeaderIds.contains(entry.getValue().headerId)
+                    ? View.GONE : View.VISIBLE);
+        }
+    }
+
+    void clear() {
+        mBindings.clear();
+        mViewsByItemId.clear();
+        mViewsByHeaderId.clear();
+    }
+}
@@ -0,0 +1,55 @@
+package se.emilsjolander.stickylistheaders;
+
+/**
+ * a set of primitive longs, so lookups neither box nor allocate. the keys of a
+ * {@link LongIntHashMap} whose values are ignored
+ */
+class LongHashSet {
+
+    private final LongIntHashMap mKeys;
+
+    LongHashSet() {
+        mKeys = new LongIntHashMap();
+    }
+
+    LongHashSet(int expectedSize) {
+        mKeys = new LongIntHashMap(expectedSize);
+    }
+
+    public boolean contains(long key) {
+        return mKeys.containsKey(key);
+    }
+
+    /**
+     * @return true if the key was not already in the set
+     */
+    public boolean add(long key) {
+        return mKeys.put(key, 0);
+    }
+
+    /**
+     * @return true if the key was in the set
+     */
+    public boolean remove(long key) {
+        return mKeys.remove(key);
+    }
+
+    public int size() {
+        return mKeys.size();
+    }
+
+    public boolean isEmpty() {
+        return mKeys.isEmpty();
+    }
+
+    public void clear() {
+        mKeys.clear();
+    }
+
+    /**
+     * @return a new array holding every key of the set, in no particular order
+     */
+    public long[] toArray() {
+        return mKeys.keys();
+    }
+}
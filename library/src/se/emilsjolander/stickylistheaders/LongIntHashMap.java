@@ -0,0 +1,212 @@
+package se.emilsjolander.stickylistheaders;
+
+/**
+ * a map from primitive longs to primitive ints using open addressing with
+ * linear probing, so lookups neither box nor allocate. removing moves later
+ * entries back instead of leaving tombstones. also backs {@link LongHashSet}
+ */
+class LongIntHashMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // 0 marks a free slot, the key 0 itself is kept in mZeroValue
+    private long[] mKeys;
+    private int[] mValues;
+    private boolean mHasZero;
+    private int mZeroValue;
+    private int mSize;
+    private int mMask;
+    private int mResizeThreshold;
+
+    LongIntHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    LongIntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return mHasZero;
+        }
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * @return the value of the key, or {@code defaultValue} if it is not in the map
+     */
+    public int get(long key, int defaultValue) {
+        if (key == 0) {
+            return mHasZero ? mZeroValue : defaultValue;
+        }
+        final int slot = findSlot(key);
+        return slot >= 0 ? mValues[slot] : defaultValue;
+    }
+
+    /**
+     * @return true if the key was not already in the map
+     */
+    public boolean put(long key, int value) {
+        if (key == 0) {
+            mZeroValue = value;
+            if (mHasZero) {
+                return false;
+            }
+            mHasZero = true;
+            mSize++;
+            return true;
+        }
+        final long[] keys = mKeys;
+        int slot = hash(key) & mMask;
+        long existing;
+        while ((existing = keys[slot]) != 0) {
+            if (existing == key) {
+                mValues[slot] = value;
+                return false;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        keys[slot] = key;
+        mValues[slot] = value;
+        if (++mSize > mResizeThreshold) {
+            rehash(mKeys.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the key was in the map
+     */
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!mHasZero) {
+                return false;
+            }
+            mHasZero = false;
+            mSize--;
+            return true;
+        }
+        final int slot = findSlot(key);
+        if (slot < 0) {
+            return false;
+        }
+        shiftKeysBack(slot);
+        mSize--;
+        return true;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        if (mSize == 0) {
+            return;
+        }
+        final long[] keys = mKeys;
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 0;
+        }
+        mHasZero = false;
+        mSize = 0;
+    }
+
+    /**
+     * @return a new array holding every key of the map, in no particular order
+     */
+    public long[] keys() {
+        long[] result = new long[mSize];
+        int i = 0;
+        if (mHasZero) {
+            result[i++] = 0;
+        }
+        for (long key : mKeys) {
+            if (key != 0) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    private int findSlot(long key) {
+        final long[] keys = mKeys;
+        int slot = hash(key) & mMask;
+        long existing;
+        while ((existing = keys[slot]) != 0) {
+            if (existing == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return -1;
+    }
+
+    /**
+     * removes the entry at the free slot by moving later entries of the same
+     * probe run back, so no tombstones are ever left behind
+     */
+    private void shiftKeysBack(int free) {
+        final long[] keys = mKeys;
+        final int[] values = mValues;
+        final int mask = mMask;
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if (key == 0) {
+                break;
+            }
+            int home = hash(key) & mask;
+            // move the entry if its home slot is not within (free, slot]
+            if (free <= slot ? (free >= home || home > slot) : (free >= home && home > slot)) {
+                keys[free] = key;
+                values[free] = values[slot];
+                free = slot;
+            }
+        }
+        keys[free] = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = mKeys;
+        int[] oldValues = mValues;
+        allocate(capacity);
+        final long[] keys = mKeys;
+        for (int i = 0; i < oldKeys.length; i++) {
+            final long key = oldKeys[i];
+            if (key != 0) {
+                int slot = hash(key) & mMask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mMask;
+                }
+                keys[slot] = key;
+                mValues[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+        mResizeThreshold = capacity >> 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity >> 1 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,265 @@
+package se.emilsjolander.stickylistheaders;
+
+import java.util.Arrays;
+
+/**
+ * A run-length index of the sections in a {@link StickyListHeadersAdapter}.
+ * Every section is stored as the position it starts at together with its
+ * header id, so questions about section boundaries can be answered without
+ * calling {@link StickyListHeadersAdapter#getHeaderId(int)} again.
+ * <p>
+ * Memory scales with the number of sections, not the number of positions.
+ * A trimmed index costs {@link #BYTES_PER_SECTION} bytes per section in
+ * primitive arrays, growing by appending sections can add up to 50% slack
+ * until the next {@link #trimToSize()}.
+ */
+class SectionIndex {
+
+	/** One int for the start position and one long for the header id. */
+	static final int BYTES_PER_SECTION = 4 + 8;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] mStarts = new int[MIN_CAPACITY];
+	private long[] mIds = new long[MIN_CAPACITY];
+	private int mSectionCount;
+	private int mCount;
+	private boolean mBuilt;
+	// incremented whenever the sections change
+	private int mModCount;
+
+	// list views mostly ask about neighbouring positions, remember the last hit
+	private int mLastSection;
+
+	/**
+	 * Scans all header ids of the adapter and records where each section starts.
+	 */
+	void build(StickyListHeadersAdapter adapter) {
+		buildRange(adapter, 0, adapter.getCount());
+		trimToSize();
+	}
+
+	/**
+	 * Records the sections of the positions {@code [start, end)} only. Indexes
+	 * of consecutive ranges can be joined with {@link #append(SectionIndex)}.
+	 */
+	void buildRange(StickyListHeadersAdapter adapter, int start, int end) {
+		mSectionCount = 0;
+		mLastSection = 0;
+		for (int i = start; i < end; i++) {
+			final long headerId = adapter.getHeaderId(i);
+			if (mSectionCount == 0 || mIds[mSectionCount - 1] != headerId) {
+				appendSection(i, headerId);
+			}
+		}
+		mCount = end;
+		mBuilt = true;
+		mModCount++;
+	}
+
+	/**
+	 * Appends the sections of an index built for the range directly following
+	 * this one, joining the sections at the seam if they share a header id.
+	 */
+	void append(SectionIndex next) {
+		for (int i = 0; i < next.mSectionCount; i++) {
+			if (i == 0 && mSectionCount > 0 && mIds[mSectionCount - 1] == next.mIds[0]) {
+				continue;
+			}
+			appendSection(next.mStarts[i], next.mIds[i]);
+		}
+		mCount = next.mCount;
+		mModCount++;
+	}
+
+	void invalidate() {
+		mBuilt = false;
+	}
+
+	boolean isBuilt() {
+		return mBuilt;
+	}
+
+	int getModCount() {
+		return mModCount;
+	}
+
+	/** The number of positions covered by this index. */
+	int getCount() {
+		return mCount;
+	}
+
+	int getSectionCount() {
+		return mSectionCount;
+	}
+
+	/** Returns {@code true} if {@code position} is the first position of a section. */
+	boolean isSectionStart(int position) {
+		if (position <= 0) {
+			return true;
+		}
+		final int section = getSectionForPosition(position);
+		return section >= 0 && mStarts[section] == position;
+	}
+
+	/**
+	 * @return the section containing {@code position}, or -1 if the index is empty.
+	 */
+	int getSectionForPosition(int position) {
+		if (mSectionCount == 0) {
+			return -1;
+		}
+		if (position <= 0) {
+			return 0;
+		}
+		// check the last hit and the section after it before searching
+		int section = mLastSection;
+		if (section < mSectionCount && mStarts[section] <= position) {
+			if (section + 1 == mSectionCount || position < mStarts[section + 1]) {
+				return section;
+			}
+			if (section + 2 == mSectionCount || position < mStarts[section + 2]) {
+				mLastSection = section + 1;
+				return section + 1;
+			}
+		}
+		section = Arrays.binarySearch(mStarts, 0, mSectionCount, position);
+		if (section < 0) {
+			// not a start, the section is the one before the insertion point
+			section = -section - 2;
+		}
+		mLastSection = section;
+		return section;
+	}
+
+	/**
+	 * @return the first position of {@code section}. Sections outside of the
+	 * index are clamped to the first and last section.
+	 */
+	int getPositionForSection(int section) {
+		if (mSectionCount == 0) {
+			return 0;
+		}
+		if (section < 0) {
+			section = 0;
+		} else if (section >= mSectionCount) {
+			section = mSectionCount - 1;
+		}
+		return mStarts[section];
+	}
+
+	long getHeaderIdForSection(int section) {
+		return mIds[section];
+	}
+
+	/** Returns the header id of {@code position} as it was when the index was built. */
+	long getHeaderId(int position) {
+		return mIds[getSectionForPosition(position)];
+	}
+
+	/**
+	 * Returns the number of bytes held by the section arrays, including
+	 * unused capacity.
+	 */
+	long getSizeInBytes() {
+		return (long) mStarts.length * BYTES_PER_SECTION;
+	}
+
+	/** Drops unused capacity so the index costs exactly {@link #BYTES_PER_SECTION} per section. */
+	void trimToSize() {
+		final int capacity = Math.max(mSectionCount, MIN_CAPACITY);
+		if (capacity < mStarts.length) {
+			int[] starts = new int[capacity];
+			long[] ids = new long[capacity];
+			System.arraycopy(mStarts, 0, starts, 0, mSectionCount);
+			System.arraycopy(mIds, 0, ids, 0, mSectionCount);
+			mStarts = starts;
+			mIds = ids;
+		}
+	}
+
+	/**
+	 * Patches the index after the positions {@code [start, start + removedCount)}
+	 * were replaced by {@code insertedCount} new positions. Only the header ids
+	 * of the new positions are read from the adapter, sections after the range
+	 * are moved without looking at their positions.
+	 */
+	void replaceRange(StickyListHeadersAdapter adapter, int start, int removedCount, int insertedCount) {
+		final int delta = insertedCount - removedCount;
+		if (!mBuilt || start < 0 || removedCount < 0 || insertedCount < 0
+				|| start + removedCount > mCount || adapter.getCount() != mCount + delta) {
+			// the change does not match what we know about the data, start over
+			invalidate();
+			return;
+		}
+
+		// the section before the range is kept, the section continuing after
+		// the range is moved to start right after the inserted positions
+		final int end = start + removedCount;
+		final int left = start > 0 ? getSectionForPosition(start - 1) : -1;
+		final int right = end < mCount ? getSectionForPosition(end) : -1;
+		final int replaceFrom = left + 1;
+		final int replaceTo = right >= 0 ? right + 1 : mSectionCount;
+
+		// collect the sections replacing [replaceFrom, replaceTo) merging
+		// neighbours that end up with the same header id
+		final int[] starts = new int[insertedCount + 1];
+		final long[] ids = new long[insertedCount + 1];
+		int count = 0;
+		boolean hasPrevious = left >= 0;
+		long previousId = hasPrevious ? mIds[left] : 0;
+		for (int i = start; i < start + insertedCount; i++) {
+			final long headerId = adapter.getHeaderId(i);
+			if (!hasPrevious || headerId != previousId) {
+				starts[count] = i;
+				ids[count] = headerId;
+				count++;
+				previousId = headerId;
+				hasPrevious = true;
+			}
+		}
+		if (right >= 0 && (!hasPrevious || mIds[right] != previousId)) {
+			starts[count] = start + insertedCount;
+			ids[count] = mIds[right];
+			count++;
+		}
+
+		// move the trailing sections into place and fill in the new ones
+		final int tail = mSectionCount - replaceTo;
+		ensureCapacity(replaceFrom + count + tail);
+		System.arraycopy(mStarts, replaceTo, mStarts, replaceFrom + count, tail);
+		System.arraycopy(mIds, replaceTo, mIds, replaceFrom + count, tail);
+		if (delta != 0) {
+			for (int i = replaceFrom + count; i < replaceFrom + count + tail; i++) {
+				mStarts[i] += delta;
+			}
+		}
+		System.arraycopy(starts, 0, mStarts, replaceFrom, count);
+		System.arraycopy(ids, 0, mIds, replaceFrom, count);
+		mSectionCount = replaceFrom + count + tail;
+		mCount += delta;
+		mLastSection = Math.max(left, 0);
+		mModCount++;
+	}
+
+	private void appendSection(int start, long headerId) {
+		ensureCapacity(mSectionCount + 1);
+		mStarts[mSectionCount] = start;
+		mIds[mSectionCount] = headerId;
+		mSectionCount++;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > mStarts.length) {
+			// Arrays.copyOf() is not available before gingerbread
+			capacity = Math.max(capacity, mStarts.length + (mStarts.length >> 1));
+			int[] starts = new int[capacity];
+			long[] ids = new long[capacity];
+			System.arraycopy(mStarts, 0, starts, 0, mSectionCount);
+			System.arraycopy(mIds, 0, ids, 0, mSectionCount);
+			mStarts = starts;
+			mIds = ids;
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+package se.emilsjolander.stickylistheaders;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Builds a {@link SectionIndex} on an {@link Executor}. The positions are split
+ * into chunks which are scanned independently, the thread finishing the last
+ * chunk joins them and the result is delivered on the main thread.
+ */
+class SectionIndexBuildTask {
+
+	interface Callback {
+		/**
+		 * Called on the main thread when the build has finished.
+		 *
+		 * @param index the built index, or null if the build failed
+		 */
+		void onSectionIndexBuilt(SectionIndexBuildTask task, SectionIndex index);
+	}
+
+	// large enough to make scheduling overhead negligible,
+	// small enough to spread a big adapter over all threads
+	private static final int CHUNK_SIZE = 32 * 1024;
+
+	private final StickyListHeadersAdapter mAdapter;
+	private final Callback mCallback;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final int mCount;
+	private final SectionIndex[] mChunks;
+	private final AtomicInteger mRemainingChunks;
+	private volatile boolean mIsCancelled;
+	private volatile boolean mHasFailed;
+
+	SectionIndexBuildTask(StickyListHeadersAdapter adapter, Callback callback) {
+		mAdapter = adapter;
+		mCallback = callback;
+		mCount = adapter.getCount();
+		final int chunkCount = Math.max(1, (mCount + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		mChunks = new SectionIndex[chunkCount];
+		mRemainingChunks = new AtomicInteger(chunkCount);
+	}
+
+	void start(Executor executor) {
+		for (int i = 0; i < mChunks.length; i++) {
+			executor.execute(new ChunkRunnable(i));
+		}
+	}
+
+	/**
+	 * Skips chunks which have not been scanned yet, the callback will not be
+	 * called. Must be called on the main thread.
+	 */
+	void cancel() {
+		mIsCancelled = true;
+	}
+
+	private void finish() {
+		SectionIndex result = null;
+		if (!mIsCancelled && !mHasFailed) {
+			result = mChunks[0];
+			for (int i = 1; i < mChunks.length; i++) {
+				result.append(mChunks[i]);
+			}
+			result.trimToSize();
+		}
+		final SectionIndex index = result;
+		mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				if (!mIsCancelled) {
+					mCallback.onSectionIndexBuilt(SectionIndexBuildTask.this, index);
+				}
+			}
+		});
+	}
+
+	private class ChunkRunnable implements Runnable {
+
+		private final int mChunk;
+
+		ChunkRunnable(int chunk) {
+			mChunk = chunk;
+		}
+
+		@Override
+		public void run() {
+			if (!mIsCancelled && !mHasFailed) {
+				final int start = mChunk * CHUNK_SIZE;
+				final int end = Math.min(start + CHUNK_SIZE, mCount);
+				final SectionIndex index = new SectionIndex();
+				try {
+					index.buildRange(mAdapter, start, end);
+					mChunks[mChunk] = index;
+				} catch (RuntimeException e) {
+					// most likely the data changed under us, the adapter
+					// retries once the next change is notified
+					mHasFailed = true;
+				}
+			}
+			if (mRemainingChunks.decrementAndGet() == 0) {
+				finish();
+			}
+		}
+
+	}
+
+}
@@ -8,25 +8,103 @@ class SectionIndexerAdapterWrapper extends
 	
 	SectionIndexer mSectionIndexerDelegate;
 
+	// when true sections are derived from the header ids instead of the delegate
+	private boolean mIsUsingHeaderIds;
+	private Object[] mSections;
+	private SectionIndex mSectionsIndex;
+	private int mSectionsModCount;
+	// the empty sections were handed out while the index was being built
+	private boolean mHasReturnedPendingSections;
+
 	SectionIndexerAdapterWrapper(Context context,
 			StickyListHeadersAdapter delegate) {
+		this(context, delegate, false);
+	}
+
+	SectionIndexerAdapterWrapper(Context context,
+			StickyListHeadersAdapter delegate, boolean usingHeaderIds) {
 		super(context, delegate);
-		mSectionIndexerDelegate = (SectionIndexer) delegate;
+		mIsUsingHeaderIds = usingHeaderIds;
+		if (!usingHeaderIds) {
+			mSectionIndexerDelegate = (SectionIndexer) delegate;
+		}
+	}
+
+	/**
+	 * Switches between sections derived from the header ids and the sections
+	 * of the delegate, which has to be a {@link SectionIndexer} unless
+	 * {@code usingHeaderIds} is true. The section index is kept.
+	 */
+	void setUsingHeaderIds(boolean usingHeaderIds) {
+		if (mIsUsingHeaderIds == usingHeaderIds) {
+			return;
+		}
+		mIsUsingHeaderIds = usingHeaderIds;
+		mSectionIndexerDelegate = usingHeaderIds ? null : (SectionIndexer) mDelegate;
+		mSections = null;
+		mHasReturnedPendingSections = false;
+		notifyDataSetChangedKeepingSectionIndex();
 	}
 
 	@Override
 	public int getPositionForSection(int section) {
+		if (mIsUsingHeaderIds) {
+			final SectionIndex index = getSectionIndex();
+			return index == null ? 0 : index.getPositionForSection(section);
+		}
 		return mSectionIndexerDelegate.getPositionForSection(section);
 	}
 
 	@Override
 	public int getSectionForPosition(int position) {
+		if (mIsUsingHeaderIds) {
+			final SectionIndex index = getSectionIndex();
+			return index == null ? 0 : Math.max(0, index.getSectionForPosition(position));
+		}
 		return mSectionIndexerDelegate.getSectionForPosition(position);
 	}
 
+	/**
+	 * When sections are derived from header ids the sections are the titles of
+	 * a {@link StickyListHeadersSectionTitleAdapter}, or else the header ids
+	 * themselves, boxed as {@link Long}s. There are no sections while the index
+	 * is being built in the background.
+	 */
 	@Override
 	public Object[] getSections() {
+		if (mIsUsingHeaderIds) {
+			final SectionIndex index = getSectionIndex();
+			if (index == null) {
+				mHasReturnedPendingSections = true;
+				return new Object[0];
+			}
+			if (mSections == null || mSectionsIndex != index || mSectionsModCount != index.getModCount()) {
+				mSections = new Object[index.getSectionCount()];
+				if (mDelegate instanceof StickyListHeadersSectionTitleAdapter) {
+					final StickyListHeadersSectionTitleAdapter titles = (StickyListHeadersSectionTitleAdapter) mDelegate;
+					for (int i = 0; i < mSections.length; i++) {
+						mSections[i] = titles.getSectionTitle(index.getPositionForSection(i));
+					}
+				} else {
+					for (int i = 0; i < mSections.length; i++) {
+						mSections[i] = index.getHeaderIdForSection(i);
+					}
+				}
+				mSectionsIndex = index;
+				mSectionsModCount = index.getModCount();
+			}
+			return mSections;
+		}
 		return mSectionIndexerDelegate.getSections();
 	}
 
+	@Override
+	void onSectionIndexReady() {
+		if (mHasReturnedPendingSections) {
+			mHasReturnedPendingSections = false;
+			// the fast scroller reads the sections again when it is told about a change
+			notifyDataSetChangedKeepingSectionIndex();
+		}
+	}
+
 }
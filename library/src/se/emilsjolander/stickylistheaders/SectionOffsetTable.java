@@ -0,0 +1,149 @@
+package se.emilsjolander.stickylistheaders;
+
+/**
+ * Maps the positions of an adapter in which collapsed sections only show
+ * their first row to the positions of the full adapter.
+ * <p>
+ * The number of shown rows of every section is kept in a binary indexed
+ * tree, and the sections are looked up by header id in a hash map, so
+ * collapsing or expanding a section and mapping a position both cost
+ * O(log sections) instead of a pass over all sections.
+ */
+class SectionOffsetTable {
+
+	interface OnRangeChangedListener {
+		/**
+		 * Called for every section whose shown rows changed, with positions of
+		 * the folded adapter after all earlier sections were updated.
+		 */
+		void onRangeChanged(int positionStart, int removedCount, int insertedCount);
+	}
+
+	private SectionIndex mIndex;
+	// the shown rows of each section, and the tree summing them (1-based)
+	private int[] mShown = new int[0];
+	private int[] mTree = new int[1];
+	// the first section of each header id, and the next section with the same
+	// id for the rare adapters repeating a header id, or -1
+	private final LongIntHashMap mFirstSectionById = new LongIntHashMap();
+	private int[] mNextSectionWithSameId = new int[0];
+	private int mSectionCount;
+	private int mCount;
+	private int mIndexModCount;
+
+	/**
+	 * Rebuilds the table for the sections of {@code index}, collapsing every
+	 * section with a header id contained in {@code collapsedHeaderIds}.
+	 */
+	void build(SectionIndex index, LongHashSet collapsedHeaderIds) {
+		mIndex = index;
+		mIndexModCount = index.getModCount();
+		mSectionCount = index.getSectionCount();
+		if (mShown.length < mSectionCount) {
+			mShown = new int[mSectionCount];
+			mTree = new int[mSectionCount + 1];
+			mNextSectionWithSameId = new int[mSectionCount];
+		}
+		mFirstSectionById.clear();
+		// walk backwards so the chains end up in ascending order
+		for (int section = mSectionCount - 1; section >= 0; section--) {
+			final long headerId = index.getHeaderIdForSection(section);
+			mNextSectionWithSameId[section] = mFirstSectionById.get(headerId, -1);
+			mFirstSectionById.put(headerId, section);
+		}
+		final int[] tree = mTree;
+		tree[0] = 0;
+		mCount = 0;
+		for (int section = 0; section < mSectionCount; section++) {
+			final int shown = collapsedHeaderIds.contains(index.getHeaderIdForSection(section))
+					? 1 : getSectionSize(section);
+			mShown[section] = shown;
+			tree[section + 1] = shown;
+			mCount += shown;
+		}
+		// turn the plain values into partial sums in a single pass
+		for (int i = 1; i <= mSectionCount; i++) {
+			final int parent = i + (i & -i);
+			if (parent <= mSectionCount) {
+				tree[parent] += tree[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns {@code true} if the table was built for the current sections of
+	 * {@code index}.
+	 */
+	boolean isBuiltFor(SectionIndex index) {
+		return mIndex == index && mIndexModCount == index.getModCount() && index.isBuilt();
+	}
+
+	void invalidate() {
+		mIndex = null;
+	}
+
+	/** The number of positions left once collapsed sections are folded. */
+	int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Collapses or expands every section with the header id {@code headerId}
+	 * and reports the rows which appeared or disappeared to {@code listener}.
+	 * The rows of a collapsed section following its first row are removed.
+	 */
+	void setCollapsed(long headerId, boolean collapsed, OnRangeChangedListener listener) {
+		for (int section = mFirstSectionById.get(headerId, -1); section >= 0;
+				section = mNextSectionWithSameId[section]) {
+			final int shown = collapsed ? 1 : getSectionSize(section);
+			final int delta = shown - mShown[section];
+			if (delta != 0) {
+				mShown[section] = shown;
+				for (int i = section + 1; i <= mSectionCount; i += i & -i) {
+					mTree[i] += delta;
+				}
+				mCount += delta;
+				if (listener != null) {
+					final int positionStart = getFoldedPositionForSection(section) + 1;
+					listener.onRangeChanged(positionStart, Math.max(0, -delta), Math.max(0, delta));
+				}
+			}
+		}
+	}
+
+	/** The position of the first row of {@code section} in the folded adapter. */
+	private int getFoldedPositionForSection(int section) {
+		int position = 0;
+		for (int i = section; i > 0; i -= i & -i) {
+			position += mTree[i];
+		}
+		return position;
+	}
+
+	/**
+	 * Maps a position of the folded adapter to the position of the same row
+	 * in the full adapter.
+	 */
+	int toInnerPosition(int position) {
+		if (position < 0 || position >= mCount) {
+			return position;
+		}
+		// find the last section starting at or before the position
+		int section = 0;
+		int remaining = position;
+		for (int step = Integer.highestOneBit(mSectionCount); step > 0; step >>= 1) {
+			final int next = section + step;
+			if (next <= mSectionCount && mTree[next] <= remaining) {
+				section = next;
+				remaining -= mTree[next];
+			}
+		}
+		return mIndex.getPositionForSection(section) + remaining;
+	}
+
+	private int getSectionSize(int section) {
+		final int end = section + 1 < mSectionCount
+				? mIndex.getPositionForSection(section + 1) : mIndex.getCount();
+		return end - mIndex.getPositionForSection(section);
+	}
+}
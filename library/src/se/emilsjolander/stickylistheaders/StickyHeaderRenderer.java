@@ -0,0 +1,41 @@
+package se.emilsjolander.stickylistheaders;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * Draws headers straight onto the list's canvas instead of through header
+ * views. Set one with
+ * {@link StickyListHeadersListView#setHeaderRenderer(StickyHeaderRenderer)}
+ * and {@link StickyListHeadersAdapter#getHeaderView(int, android.view.View, android.view.ViewGroup)}
+ * is no longer called. Headers are then identified by their header id only.
+ */
+public interface StickyHeaderRenderer {
+	/**
+	 * Get the height of the header with the specified header id.
+	 *
+	 * @param headerId
+	 * The id of the header, as returned by
+	 * {@link StickyListHeadersAdapter#getHeaderId(int)}.
+	 * @param width
+	 * The width in pixels the header will be drawn with.
+	 * @return
+	 * The height of the header in pixels.
+	 */
+	int getHeaderHeight(long headerId, int width);
+
+	/**
+	 * Draw the header with the specified header id.
+	 *
+	 * @param canvas
+	 * The canvas to draw on.
+	 * @param headerId
+	 * The id of the header, as returned by
+	 * {@link StickyListHeadersAdapter#getHeaderId(int)}.
+	 * @param bounds
+	 * Where on the canvas the header should be drawn. Its height is the one
+	 * returned by {@link #getHeaderHeight(long, int)}. The rect is reused
+	 * and must not be kept or modified.
+	 */
+	void drawHeader(Canvas canvas, long headerId, Rect bounds);
+}
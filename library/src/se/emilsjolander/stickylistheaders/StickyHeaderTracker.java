@@ -0,0 +1,221 @@
+package se.emilsjolander.stickylistheaders;
+
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Decides which header of a {@link WrapperViewList} is sticky, where it is
+ * drawn and which touches belong to it. Shared by
+ * {@link StickyListHeadersListView} and {@link StickyListHeadersFlatListView},
+ * which only differ in how they bind, attach and draw the header. They do that
+ * when the {@link Host} is told to.
+ */
+class StickyHeaderTracker {
+
+	interface Host {
+		/**
+		 * The header of {@code headerPosition} became sticky, bind and measure
+		 * it. Also called for the same header id after its item changed.
+		 */
+		void onStickyHeaderChanged(int headerPosition, long headerId);
+
+		/** The sticky header moved to {@code offset} from the top of the list. */
+		void onStickyHeaderOffsetChanged(int offset);
+
+		/** There is no sticky header anymore, release the one shown. */
+		void onStickyHeaderCleared();
+
+		int getStickyHeaderHeight();
+	}
+
+	/* --- Touch routes, see routeTouch() --- */
+	// the list gets the event
+	static final int TOUCH_LIST = 0;
+	// the sticky header keeps the touch
+	static final int TOUCH_HEADER = 1;
+	// the touch ended on the sticky header without moving, it was clicked
+	static final int TOUCH_CLICK = 2;
+	// the touch on the sticky header became a scroll, the list has to get a
+	// down event at getDownY() and the header a cancel
+	static final int TOUCH_SCROLL = 3;
+
+	private final Host mHost;
+	private final float mTouchSlop;
+
+	private boolean mHasHeader;
+	private long mHeaderId;
+	// -1 while unknown, after the positions of the adapter have moved
+	private int mHeaderPosition = -1;
+	// the item the header was bound with has changed, bind it again
+	private boolean mIsHeaderStale;
+	private boolean mIsHeaderOffsetSet;
+	private int mHeaderOffset;
+
+	private float mDownY;
+	private boolean mHeaderOwnsTouch;
+
+	StickyHeaderTracker(Host host, float touchSlop) {
+		mHost = host;
+		mTouchSlop = touchSlop;
+	}
+
+	boolean hasHeader() {
+		return mHasHeader;
+	}
+
+	long getHeaderId() {
+		return mHeaderId;
+	}
+
+	/** The position of the sticky header, or -1 if there is none or it is unknown. */
+	int getHeaderPosition() {
+		return mHasHeader ? mHeaderPosition : -1;
+	}
+
+	int getHeaderOffset() {
+		return mHeaderOffset;
+	}
+
+	/**
+	 * Makes the header of the item at {@code top} or right below it sticky, or
+	 * clears the sticky header if there is no such item.
+	 *
+	 * @return true if there is a sticky header
+	 */
+	boolean update(WrapperViewList list, AdapterWrapper adapter, int top) {
+		final int adapterCount = adapter == null ? 0 : adapter.getCount();
+		final int childCount = list.getChildCount();
+		final View firstChild = childCount > 0 ? list.getChildAt(0) : null;
+		// It is not a mistake to use getFirstVisiblePosition() here as well.
+		// Most of the time getFixedFirstVisibleItem() should be used but that
+		// does not work great together with getChildAt()
+		final int headerPosition = findHeaderPosition(adapterCount, list.getHeaderViewsCount(),
+				list.getFixedFirstVisibleItem(), list.getFirstVisiblePosition(), childCount,
+				firstChild != null ? firstChild.getTop() : 0, firstChild != null ? firstChild.getBottom() : 0, top);
+		if (headerPosition < 0) {
+			clear();
+			return false;
+		}
+		moveTo(headerPosition, adapter);
+
+		int headerOffset = top;
+		final View nextBoundary = list.findNextSectionBoundary(adapter.getSectionIndex(), headerPosition, top);
+		if (nextBoundary != null) {
+			headerOffset = Math.min(nextBoundary.getTop() - mHost.getStickyHeaderHeight(), headerOffset);
+		}
+		setHeaderOffset(headerOffset);
+		return true;
+	}
+
+	/**
+	 * Returns the adapter position whose header is sticky, or -1 if no header
+	 * should be sticky.
+	 *
+	 * @param firstVisibleItem the first visible position, as the list reports it
+	 * while scrolling
+	 * @param firstVisiblePosition the position of the first child
+	 */
+	static int findHeaderPosition(int adapterCount, int headerViewsCount, int firstVisibleItem,
+			int firstVisiblePosition, int childCount, int firstChildTop, int firstChildBottom, int top) {
+		if (childCount == 0) {
+			return -1;
+		}
+		int headerPosition = firstVisibleItem - headerViewsCount;
+		if (firstChildBottom < top) {
+			headerPosition++;
+		}
+		final boolean isFirstViewBelowTop = firstVisiblePosition == 0 && firstChildTop >= top;
+		if (isFirstViewBelowTop || headerPosition < 0 || headerPosition > adapterCount - 1) {
+			return -1;
+		}
+		return headerPosition;
+	}
+
+	/**
+	 * Makes the header of {@code headerPosition} sticky. The header is only
+	 * bound again if its header id changed or its item did.
+	 */
+	void moveTo(int headerPosition, StickyListHeadersAdapter adapter) {
+		if (mHeaderPosition == headerPosition && mHasHeader && !mIsHeaderStale) {
+			return;
+		}
+		mHeaderPosition = headerPosition;
+		final long headerId = adapter.getHeaderId(headerPosition);
+		if (!mHasHeader || mHeaderId != headerId || mIsHeaderStale) {
+			mHasHeader = true;
+			mHeaderId = headerId;
+			mIsHeaderStale = false;
+			mHost.onStickyHeaderChanged(headerPosition, headerId);
+			// the new header has to be moved into place even if the offset is the same
+			mIsHeaderOffsetSet = false;
+		}
+	}
+
+	void setHeaderOffset(int offset) {
+		if (!mIsHeaderOffsetSet || mHeaderOffset != offset) {
+			mIsHeaderOffsetSet = true;
+			mHeaderOffset = offset;
+			mHost.onStickyHeaderOffsetChanged(offset);
+		}
+	}
+
+	/**
+	 * Forgets the position of the sticky header after a range of the adapter
+	 * changed, the header itself stays until the next {@link #update} resolves
+	 * it again. The header is bound again if its own item is one of the
+	 * {@code changedCount} changed items starting at {@code changedStart}.
+	 */
+	void invalidatePosition(int changedStart, int changedCount) {
+		if (mHeaderPosition >= changedStart && mHeaderPosition < changedStart + changedCount) {
+			mIsHeaderStale = true;
+		}
+		mHeaderPosition = -1;
+	}
+
+	void clear() {
+		final boolean hadHeader = mHasHeader;
+		mHasHeader = false;
+		mHeaderPosition = -1;
+		mIsHeaderStale = false;
+		mIsHeaderOffsetSet = false;
+		mHeaderOffset = 0;
+		if (hadHeader) {
+			mHost.onStickyHeaderCleared();
+		}
+	}
+
+	/**
+	 * Decides where a touch event goes. A touch which goes down on the sticky
+	 * header belongs to it until it moves further than the touch slop, then it
+	 * is handed to the list.
+	 *
+	 * @param actionMasked the masked action of the event
+	 * @return one of {@link #TOUCH_LIST}, {@link #TOUCH_HEADER},
+	 * {@link #TOUCH_CLICK} or {@link #TOUCH_SCROLL}
+	 */
+	int routeTouch(int actionMasked, float y) {
+		if (actionMasked == MotionEvent.ACTION_DOWN) {
+			mDownY = y;
+			mHeaderOwnsTouch = mHasHeader && y <= mHeaderOffset + mHost.getStickyHeaderHeight();
+		}
+		if (!mHeaderOwnsTouch) {
+			return TOUCH_LIST;
+		}
+		if (Math.abs(mDownY - y) > mTouchSlop) {
+			mHeaderOwnsTouch = false;
+			return TOUCH_SCROLL;
+		}
+		if (actionMasked == MotionEvent.ACTION_UP || actionMasked == MotionEvent.ACTION_CANCEL) {
+			mHeaderOwnsTouch = false;
+			if (actionMasked == MotionEvent.ACTION_UP) {
+				return TOUCH_CLICK;
+			}
+		}
+		return TOUCH_HEADER;
+	}
+
+	/** Where the touch last went down, see {@link #TOUCH_SCROLL}. */
+	float getDownY() {
+		return mDownY;
+	}
+}
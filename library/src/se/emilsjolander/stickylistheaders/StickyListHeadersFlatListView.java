@@ -0,0 +1,451 @@
+package se.emilsjolander.stickylistheaders;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.database.DataSetObserver;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+import android.widget.Adapter;
+import android.widget.ListAdapter;
+
+/**
+ * A list with sticky headers that is a single view. Unlike
+ * {@link StickyListHeadersListView}, which is a FrameLayout holding a list and
+ * the sticky header, this list owns and draws the sticky header itself. That
+ * saves a level of measure and layout, the padding is the list's own and touch
+ * events reach the list without being copied.
+ * <p>
+ * The sticky header is not attached to any parent. It is measured, laid out and
+ * drawn by this list and gets no touch events, clicks on it are reported to the
+ * {@link OnHeaderClickListener}. A header view which requests a layout is
+ * measured again the next time the list lays out or scrolls. If a header view
+ * changes on its own, for example when an image has loaded, call
+ * {@link #invalidate()} to redraw it.
+ * <p>
+ * Which header is sticky and which touches it gets is decided the same way as
+ * in {@link StickyListHeadersListView}. Only the core features of that list are
+ * available, fast scroll sections derived from header ids and building the
+ * section index in the background are not. Adapters set with
+ * {@link #setAdapter(ListAdapter)} must implement {@link StickyListHeadersAdapter}.
+ */
+public class StickyListHeadersFlatListView extends WrapperViewList {
+
+    public interface OnHeaderClickListener {
+        void onHeaderClick(StickyListHeadersFlatListView l, View header,
+                           int itemPosition, long headerId, boolean currentlySticky);
+    }
+
+    /* --- Header state --- */
+    // which header is sticky and where, and which touches it gets
+    private final StickyHeaderTracker mStickyHeader;
+    private View mHeader;
+    private int mHeaderViewType;
+    // sticky headers of other types, kept so switching between types does not inflate
+    private HeaderPool mStickyHeaderPool;
+    private int mHeaderHeight;
+    private final Rect mHeaderBounds = new Rect();
+
+    /* --- Dividers --- */
+    // drawn by WrapperViewList, ListView itself draws none
+    private Drawable mDivider;
+    private int mDividerHeight;
+    // false while ListView's constructor runs, it sets the divider of the theme
+    private boolean mIsInitialized;
+
+    /* --- Settings --- */
+    private boolean mAreHeadersSticky = true;
+    private StickyHeaderRenderer mHeaderRenderer;
+
+    /* --- Other --- */
+    private AdapterWrapper mAdapter;
+    private OnHeaderClickListener mOnHeaderClickListener;
+    private final DataSetObserver mDataSetObserver = new DataSetObserver() {
+
+        @Override
+        public void onChanged() {
+            if (mAdapter.isDispatchingItemRangeChange()) {
+                // the sticky header is kept and resolved again on the next layout
+                return;
+            }
+            clearHeader();
+        }
+
+        @Override
+        public void onInvalidated() {
+            clearHeader();
+            mStickyHeaderPool.clear();
+        }
+    };
+    private final AdapterWrapper.OnHeaderClickListener mAdapterHeaderClickHandler = new AdapterWrapper.OnHeaderClickListener() {
+
+        @Override
+        public void onHeaderClick(View header, int itemPosition, long headerId) {
+            mOnHeaderClickListener.onHeaderClick(StickyListHeadersFlatListView.this,
+                    header, itemPosition, headerId, false);
+        }
+    };
+
+    public StickyListHeadersFlatListView(Context context) {
+        this(context, null);
+    }
+
+    public StickyListHeadersFlatListView(Context context, AttributeSet attrs) {
+        this(context, attrs, android.R.attr.listViewStyle);
+    }
+
+    public StickyListHeadersFlatListView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        mStickyHeader = new StickyHeaderTracker(new StickyHeaderHost(),
+                ViewConfiguration.get(context).getScaledTouchSlop());
+
+        // dividers are drawn next to the wrappers so they look good with headers,
+        // take over the one ListView got from the theme or the attributes
+        mDivider = super.getDivider();
+        mDividerHeight = super.getDividerHeight();
+        super.setDivider(null);
+        super.setDividerHeight(0);
+        setWrapperDivider(mDivider, mDividerHeight);
+        mIsInitialized = true;
+
+        if (attrs != null) {
+            // the clipping is otherwise only known when set from code
+            TypedArray a = context.obtainStyledAttributes(attrs, new int[] {android.R.attr.clipToPadding});
+            try {
+                setClipToPadding(a.getBoolean(0, true));
+            } finally {
+                a.recycle();
+            }
+        }
+
+        setLifeCycleListener(new LifeCycleListener() {
+
+            @Override
+            public void onDispatchDrawOccurred(Canvas canvas) {
+                drawStickyHeader(canvas);
+            }
+        });
+    }
+
+    @Override
+    public void setAdapter(ListAdapter adapter) {
+        if (adapter != null && !(adapter instanceof StickyListHeadersAdapter)) {
+            throw new IllegalArgumentException("adapter must implement StickyListHeadersAdapter");
+        }
+        if (mAdapter != null) {
+            mAdapter.unregisterDataSetObserver(mDataSetObserver);
+            mAdapter.setOnHeaderClickListener(null);
+            mAdapter = null;
+        }
+        clearHeader();
+        if (adapter == null) {
+            super.setAdapter(null);
+            return;
+        }
+
+        mAdapter = new AdapterWrapper(getContext(), (StickyListHeadersAdapter) adapter);
+        mStickyHeaderPool = new HeaderPool(mAdapter.getHeaderViewTypeCount(), 1);
+        mAdapter.registerDataSetObserver(mDataSetObserver);
+        mAdapter.setOnHeaderClickListener(mOnHeaderClickListener != null ? mAdapterHeaderClickHandler : null);
+        mAdapter.setHeaderRenderer(mHeaderRenderer);
+        super.setAdapter(mAdapter);
+    }
+
+    /**
+     * @return the adapter which was set with {@link #setAdapter(ListAdapter)}.
+     */
+    public StickyListHeadersAdapter getWrappedAdapter() {
+        return mAdapter == null ? null : mAdapter.mDelegate;
+    }
+
+    @Override
+    public void setDivider(Drawable divider) {
+        if (!mIsInitialized) {
+            super.setDivider(divider);
+            return;
+        }
+        mDivider = divider;
+        mDividerHeight = divider != null ? divider.getIntrinsicHeight() : 0;
+        setWrapperDivider(mDivider, mDividerHeight);
+    }
+
+    @Override
+    public void setDividerHeight(int dividerHeight) {
+        if (!mIsInitialized) {
+            super.setDividerHeight(dividerHeight);
+            return;
+        }
+        mDividerHeight = dividerHeight;
+        setWrapperDivider(mDivider, mDividerHeight);
+    }
+
+    @Override
+    public Drawable getDivider() {
+        return mIsInitialized ? mDivider : super.getDivider();
+    }
+
+    @Override
+    public int getDividerHeight() {
+        return mIsInitialized ? mDividerHeight : super.getDividerHeight();
+    }
+
+    /**
+     * @see StickyListHeadersListView#notifyItemRangeInserted(int, int)
+     */
+    public void notifyItemRangeInserted(int positionStart, int itemCount) {
+        if (mAdapter != null) {
+            mStickyHeader.invalidatePosition(positionStart, 0);
+            mAdapter.notifyItemRangeInserted(positionStart, itemCount);
+            updateOrClearHeader();
+        }
+    }
+
+    /**
+     * @see StickyListHeadersListView#notifyItemRangeRemoved(int, int)
+     */
+    public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+        if (mAdapter != null) {
+            mStickyHeader.invalidatePosition(positionStart, 0);
+            mAdapter.notifyItemRangeRemoved(positionStart, itemCount);
+            updateOrClearHeader();
+        }
+    }
+
+    /**
+     * @see StickyListHeadersListView#notifyItemRangeChanged(int, int)
+     */
+    public void notifyItemRangeChanged(int positionStart, int itemCount) {
+        if (mAdapter != null) {
+            mStickyHeader.invalidatePosition(positionStart, itemCount);
+            mAdapter.notifyItemRangeChanged(positionStart, itemCount);
+            updateOrClearHeader();
+        }
+    }
+
+    public void setAreHeadersSticky(boolean areHeadersSticky) {
+        mAreHeadersSticky = areHeadersSticky;
+        if (!areHeadersSticky) {
+            clearHeader();
+        } else {
+            updateOrClearHeader();
+        }
+        invalidate();
+    }
+
+    public boolean areHeadersSticky() {
+        return mAreHeadersSticky;
+    }
+
+    /**
+     * @see StickyListHeadersListView#setHeaderRenderer(StickyHeaderRenderer)
+     */
+    public void setHeaderRenderer(StickyHeaderRenderer renderer) {
+        if (mHeaderRenderer == renderer) {
+            return;
+        }
+        mHeaderRenderer = renderer;
+        clearHeader();
+        if (mAdapter != null) {
+            mAdapter.setHeaderRenderer(renderer);
+            if (renderer != null) {
+                mStickyHeaderPool.clear();
+            }
+            // every visible header has to be rebound
+            invalidateViews();
+        }
+    }
+
+    public StickyHeaderRenderer getHeaderRenderer() {
+        return mHeaderRenderer;
+    }
+
+    public void setOnHeaderClickListener(OnHeaderClickListener listener) {
+        mOnHeaderClickListener = listener;
+        if (mAdapter != null) {
+            mAdapter.setOnHeaderClickListener(listener != null ? mAdapterHeaderClickHandler : null);
+        }
+    }
+
+    @Override
+    protected void layoutChildren() {
+        super.layoutChildren();
+        updateOrClearHeader();
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        // the list calls this after moving its children
+        super.onScrollChanged(l, t, oldl, oldt);
+        updateOrClearHeader();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (w != oldw) {
+            // the header has to be measured for the new width
+            clearHeader();
+        }
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        // onScrollChanged() is not called while scrolling before froyo
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) {
+            updateOrClearHeader();
+        }
+        super.dispatchDraw(canvas);
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        final int action = ev.getAction();
+        switch (mStickyHeader.routeTouch(action & MotionEvent.ACTION_MASK, ev.getY())) {
+            case StickyHeaderTracker.TOUCH_CLICK:
+                onStickyHeaderClick();
+                return true;
+            case StickyHeaderTracker.TOUCH_HEADER:
+                return true;
+            case StickyHeaderTracker.TOUCH_SCROLL:
+                // the touch became a scroll, the list sees it start where it went down.
+                // The event is changed and restored instead of copied.
+                final float y = ev.getY();
+                ev.setAction(MotionEvent.ACTION_DOWN);
+                ev.setLocation(ev.getX(), mStickyHeader.getDownY());
+                final boolean handled = super.dispatchTouchEvent(ev);
+                ev.setLocation(ev.getX(), y);
+                ev.setAction(action);
+                return handled;
+            default:
+                return super.dispatchTouchEvent(ev);
+        }
+    }
+
+    private void onStickyHeaderClick() {
+        final int headerPosition = mStickyHeader.getHeaderPosition();
+        if (mOnHeaderClickListener != null && headerPosition >= 0) {
+            mOnHeaderClickListener.onHeaderClick(this, mHeader, headerPosition, mStickyHeader.getHeaderId(), true);
+        }
+    }
+
+    private int stickyHeaderTop() {
+        return mClippingToPadding ? getPaddingTop() : 0;
+    }
+
+    private int getHeaderWidth() {
+        return getWidth() - getPaddingLeft() - getPaddingRight();
+    }
+
+    private void updateOrClearHeader() {
+        if (mAdapter == null || mAdapter.getCount() == 0) {
+            // range notifications do not clear the header like onChanged() does
+            clearHeader();
+            return;
+        }
+        if (!mAreHeadersSticky || getHeaderWidth() <= 0) {
+            return;
+        }
+        if (mHeader != null && mHeader.isLayoutRequested()) {
+            // the header is not attached, its layout requests reach no parent
+            measureHeader(mHeader);
+        }
+        final int top = stickyHeaderTop();
+        if (mStickyHeader.update(this, mAdapter, top)) {
+            updateHeaderVisibilities(top);
+        }
+    }
+
+    private class StickyHeaderHost implements StickyHeaderTracker.Host {
+
+        @Override
+        public void onStickyHeaderChanged(int headerPosition, long headerId) {
+            if (mHeaderRenderer != null) {
+                mHeaderHeight = mHeaderRenderer.getHeaderHeight(headerId, getHeaderWidth());
+            } else {
+                updateHeaderView(headerPosition);
+            }
+        }
+
+        @Override
+        public void onStickyHeaderOffsetChanged(int offset) {
+            invalidate();
+        }
+
+        @Override
+        public void onStickyHeaderCleared() {
+            if (mHeader != null) {
+                mStickyHeaderPool.put(mHeader, mHeaderViewType);
+                mHeader = null;
+            }
+            mHeaderHeight = 0;
+            updateHeaderVisibilities(stickyHeaderTop());
+            invalidate();
+        }
+
+        @Override
+        public int getStickyHeaderHeight() {
+            return mHeaderHeight;
+        }
+    }
+
+    private void updateHeaderView(int headerPosition) {
+        final int headerViewType = mAdapter.getHeaderViewType(headerPosition);
+        View convertView = mHeader;
+        if (mHeader == null || headerViewType != mHeaderViewType
+                || headerViewType == Adapter.IGNORE_ITEM_VIEW_TYPE) {
+            // headers of the ignored type are never converted
+            convertView = mStickyHeaderPool.get(headerViewType);
+        }
+        final View header = mAdapter.getHeaderView(headerPosition, convertView, this);
+        if (header == null) {
+            throw new NullPointerException("header may not be null");
+        }
+        if (mHeader != null && mHeader != header && headerViewType != mHeaderViewType) {
+            mStickyHeaderPool.put(mHeader, mHeaderViewType);
+        }
+        mHeader = header;
+        mHeaderViewType = headerViewType;
+        measureHeader(header);
+    }
+
+    private void measureHeader(View header) {
+        final int width = getHeaderWidth();
+        final ViewGroup.LayoutParams params = header.getLayoutParams();
+        final int heightMeasureSpec = params != null && params.height > 0
+                ? MeasureSpec.makeMeasureSpec(params.height, MeasureSpec.EXACTLY)
+                : MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        header.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY), heightMeasureSpec);
+        mHeaderHeight = header.getMeasuredHeight();
+        header.layout(0, 0, width, mHeaderHeight);
+    }
+
+    private void clearHeader() {
+        mStickyHeader.clear();
+    }
+
+    private void drawStickyHeader(Canvas canvas) {
+        if (!mStickyHeader.hasHeader()) {
+            return;
+        }
+        final int headerOffset = mStickyHeader.getHeaderOffset();
+        final int saveCount = canvas.save();
+        if (mClippingToPadding) {
+            canvas.clipRect(0, getPaddingTop(), getRight(), getBottom());
+        }
+        if (mHeader != null) {
+            canvas.translate(getPaddingLeft(), headerOffset);
+            mHeader.draw(canvas);
+        } else {
+            mHeaderBounds.set(getPaddingLeft(), headerOffset, getPaddingLeft() + getHeaderWidth(),
+                    headerOffset + mHeaderHeight);
+            mHeaderRenderer.drawHeader(canvas, mStickyHeader.getHeaderId(), mHeaderBounds);
+        }
+        canvas.restoreToCount(saveCount);
+    }
+}
@@ -2,12 +2,17 @@ package se.emilsjolander.stickylistheaders;
 
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.database.DataSetObserver;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Parcelable;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -19,12 +24,15 @@ import android.view.ViewGroup;
 import android.widget.AbsListView;
 import android.widget.AbsListView.MultiChoiceModeListener;
 import android.widget.AbsListView.OnScrollListener;
+import android.widget.Adapter;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.FrameLayout;
 import android.widget.ListView;
 import android.widget.SectionIndexer;
 
+import java.util.concurrent.Executor;
+
 import se.emilsjolander.stickylistheaders.WrapperViewList.LifeCycleListener;
 
 /**
@@ -74,15 +82,46 @@ public class StickyListHeadersListView extends FrameLayout {
 
     }
 
+    /**
+     * Notifies the listener when a section index built in the background is ready.
+     */
+    public interface OnSectionIndexReadyListener {
+        /**
+         * @param l The view parent
+         */
+        void onSectionIndexReady(StickyListHeadersListView l);
+    }
+
     /* --- Children --- */
     private WrapperViewList mList;
     private View mHeader;
 
     /* --- Header state --- */
-    private Long mHeaderId;
-    // used to not have to call getHeaderId() all the time
-    private Integer mHeaderPosition;
-    private Integer mHeaderOffset;
+    // which header is sticky and where, and which touches it gets
+    private StickyHeaderTracker mStickyHeader;
+    private int mHeaderViewType;
+    // sticky headers of other types, kept so switching between types does not inflate
+    private HeaderPool mStickyHeaderPool;
+    // the sticky header currently drawn through a hardware layer, if any
+    private View mLayeredHeader;
+    // used instead of mHeader when headers are drawn by mHeaderRenderer
+    private StickyHeaderRenderer mHeaderRenderer;
+    private int mRenderedHeaderHeight;
+    private final Rect mRenderedHeaderBounds = new Rect();
+    private int mScrollState = OnScrollListener.SCROLL_STATE_IDLE;
+
+    /* --- Header height cache --- */
+    // a handful of programmatic scroll targets, not every header of a long list
+    private static final int MAX_CACHED_HEADER_HEIGHTS = 64;
+    private final LongIntHashMap mHeaderHeights = new LongIntHashMap(MAX_CACHED_HEADER_HEIGHTS);
+    private int mHeaderHeightsWidth = -1;
+    // headers bound only to be measured, kept apart from the adapter's pool
+    // so measuring neither takes headers the list needs nor skews its stats
+    private HeaderPool mMeasuringHeaderPool;
+
+    /* --- In-list header visibility --- */
+    private int mHeaderVisibilityWrites;
+    private int mLastFrameHeaderVisibilityWrites;
 
     /* --- Delegates --- */
     private OnScrollListener mOnScrollListenerDelegate;
@@ -92,21 +131,26 @@ public class StickyListHeadersListView extends FrameLayout {
     private boolean mAreHeadersSticky = true;
     private boolean mClippingToPadding = true;
     private boolean mIsDrawingListUnderStickyHeader = true;
+    private boolean mIsUsingHeaderIdsAsSections = false;
+    private boolean mIsCachingStickyHeaderDuringScroll = false;
     private int mStickyHeaderTopOffset = 0;
     private int mPaddingLeft = 0;
     private int mPaddingTop = 0;
     private int mPaddingRight = 0;
     private int mPaddingBottom = 0;
 
-    /* --- Touch handling --- */
-    private float mDownY;
-    private boolean mHeaderOwnsTouch;
-    private float mTouchSlop;
-
     /* --- Other --- */
     private OnHeaderClickListener mOnHeaderClickListener;
+    // shared by all headers so binding a header does not allocate a listener
+    private final AdapterWrapperHeaderClickHandler mAdapterHeaderClickHandler = new AdapterWrapperHeaderClickHandler();
+    private final StickyHeaderClickHandler mStickyHeaderClickHandler = new StickyHeaderClickHandler();
     private OnStickyHeaderOffsetChangedListener mOnStickyHeaderOffsetChangedListener;
     private OnStickyHeaderChangedListener mOnStickyHeaderChangedListener;
+    private OnSectionIndexReadyListener mOnSectionIndexReadyListener;
+    private Executor mSectionIndexExecutor;
+    private int mMaxRecycledHeaders = AdapterWrapper.DEFAULT_MAX_RECYCLED_HEADERS;
+    private MemoryTrimCallbacks mMemoryTrimCallbacks;
+    private Prewarmer mPrewarmer;
     private AdapterWrapperDataSetObserver mDataSetObserver;
     private Drawable mDivider;
     private int mDividerHeight;
@@ -123,12 +167,13 @@ public class StickyListHeadersListView extends FrameLayout {
     public StickyListHeadersListView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
 
-        mTouchSlop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
+        mStickyHeader = new StickyHeaderTracker(new StickyHeaderHost(),
+                ViewConfiguration.get(getContext()).getScaledTouchSlop());
 
         // Initialize the wrapped list
         mList = new WrapperViewList(context);
 
-        // null out divider, dividers are handled by adapter so they look good with headers
+        // null out divider, dividers are drawn next to the wrappers so they look good with headers
         mDivider = mList.getDivider();
         mDividerHeight = mList.getDividerHeight();
         mList.setDivider(null);
@@ -223,6 +268,8 @@ public class StickyListHeadersListView extends FrameLayout {
             }
         }
 
+        mList.setWrapperDivider(mDivider, mDividerHeight);
+
         // attach some listeners to the wrapped list
         mList.setLifeCycleListener(new WrapperViewListLifeCycleListener());
         mList.setOnScrollListener(new WrapperListScrollListener());
@@ -234,6 +281,41 @@ public class StickyListHeadersListView extends FrameLayout {
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
         measureHeader(mHeader);
+        if (mHeaderRenderer != null && mStickyHeader.hasHeader()) {
+            mRenderedHeaderHeight = mHeaderRenderer.getHeaderHeight(mStickyHeader.getHeaderId(), getHeaderWidth());
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            mMemoryTrimCallbacks = new MemoryTrimCallbacks();
+            getContext().getApplicationContext().registerComponentCallbacks(mMemoryTrimCallbacks);
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        cancelPrewarm();
+        if (mMemoryTrimCallbacks != null) {
+            getContext().getApplicationContext().unregisterComponentCallbacks(mMemoryTrimCallbacks);
+            mMemoryTrimCallbacks = null;
+        }
+    }
+
+    // Drops recycled headers which are not on screen
+    private void trimRecycledHeaders() {
+        if (mAdapter != null) {
+            mAdapter.getHeaderPool().trimToSize(0);
+        }
+        if (mStickyHeaderPool != null) {
+            mStickyHeaderPool.trimToSize(0);
+            mMeasuringHeaderPool.trimToSize(0);
+        }
     }
 
     private void ensureHeaderHasCorrectLayoutParams(View header) {
@@ -248,9 +330,20 @@ public class StickyListHeadersListView extends FrameLayout {
         }
     }
 
+    private int getHeaderWidth() {
+        return getMeasuredWidth() - mPaddingLeft - mPaddingRight;
+    }
+
+    // Only re-measure the sticky header if its content or the available width changed
+    private void measureHeaderIfNeeded(View header) {
+        if (header.isLayoutRequested() || header.getMeasuredWidth() != getHeaderWidth()) {
+            measureHeader(header);
+        }
+    }
+
     private void measureHeader(View header) {
         if (header != null) {
-            final int width = getMeasuredWidth() - mPaddingLeft - mPaddingRight;
+            final int width = getHeaderWidth();
             final int parentWidthMeasureSpec = MeasureSpec.makeMeasureSpec(
                     width, MeasureSpec.EXACTLY);
             final int parentHeightMeasureSpec = MeasureSpec.makeMeasureSpec(0,
@@ -280,106 +373,145 @@ public class StickyListHeadersListView extends FrameLayout {
         if (mList.getVisibility() == VISIBLE || mList.getAnimation() != null) {
             drawChild(canvas, mList, 0);
         }
+        mLastFrameHeaderVisibilityWrites = mHeaderVisibilityWrites;
+        mHeaderVisibilityWrites = 0;
     }
 
     // Reset values tied the header. also remove header form layout
     // This is called in response to the data set or the adapter changing
     private void clearHeader() {
-        if (mHeader != null) {
-            removeView(mHeader);
-            mHeader = null;
-            mHeaderId = null;
-            mHeaderPosition = null;
-            mHeaderOffset = null;
-
-            // reset the top clipping length
-            mList.setTopClippingLength(0);
-            updateHeaderVisibilities();
-        }
+        mStickyHeader.clear();
     }
 
-    private void updateOrClearHeader(int firstVisiblePosition) {
-        final int adapterCount = mAdapter == null ? 0 : mAdapter.getCount();
-        if (adapterCount == 0 || !mAreHeadersSticky) {
+    private void updateOrClearHeader() {
+        if (mAdapter == null || mAdapter.getCount() == 0) {
+            // range notifications do not clear the header like onChanged() does
+            clearHeader();
             return;
         }
-
-        final int headerViewCount = mList.getHeaderViewsCount();
-        int headerPosition = firstVisiblePosition - headerViewCount;
-        if (mList.getChildCount() > 0) {
-            View firstItem = mList.getChildAt(0);
-            if (firstItem.getBottom() < stickyHeaderTop()) {
-                headerPosition++;
-            }
+        if (!mAreHeadersSticky) {
+            return;
         }
-
-        // It is not a mistake to call getFirstVisiblePosition() here.
-        // Most of the time getFixedFirstVisibleItem() should be called
-        // but that does not work great together with getChildAt()
-        final boolean doesListHaveChildren = mList.getChildCount() != 0;
-        final boolean isFirstViewBelowTop = doesListHaveChildren
-                && mList.getFirstVisiblePosition() == 0
-                && mList.getChildAt(0).getTop() >= stickyHeaderTop();
-        final boolean isHeaderPositionOutsideAdapterRange = headerPosition > adapterCount - 1
-                || headerPosition < 0;
-        if (!doesListHaveChildren || isHeaderPositionOutsideAdapterRange || isFirstViewBelowTop) {
-            clearHeader();
+        if (!mStickyHeader.update(mList, mAdapter, stickyHeaderTop())) {
             return;
         }
+        if (!mIsDrawingListUnderStickyHeader) {
+            mList.setTopClippingLength(getStickyHeaderHeight()
+                    + mStickyHeader.getHeaderOffset());
+        }
 
-        updateHeader(headerPosition);
+        updateHeaderVisibilities();
     }
 
-    private void updateHeader(int headerPosition) {
+    private class StickyHeaderHost implements StickyHeaderTracker.Host {
 
-        // check if there is a new header should be sticky
-        if (mHeaderPosition == null || mHeaderPosition != headerPosition) {
-            mHeaderPosition = headerPosition;
-            final long headerId = mAdapter.getHeaderId(headerPosition);
-            if (mHeaderId == null || mHeaderId != headerId) {
-                mHeaderId = headerId;
-                final View header = mAdapter.getHeaderView(mHeaderPosition, mHeader, this);
-                if (mHeader != header) {
-                    if (header == null) {
-                        throw new NullPointerException("header may not be null");
-                    }
-                    swapHeader(header);
-                }
-                ensureHeaderHasCorrectLayoutParams(mHeader);
-                measureHeader(mHeader);
-                if(mOnStickyHeaderChangedListener != null) {
-                    mOnStickyHeaderChangedListener.onStickyHeaderChanged(this, mHeader, headerPosition, mHeaderId);
+        @Override
+        public void onStickyHeaderChanged(int headerPosition, long headerId) {
+            // the cached rendering shows the previous header
+            dropStickyHeaderLayer();
+            if (mHeaderRenderer != null) {
+                updateRenderedHeader(headerPosition, headerId);
+            } else {
+                updateHeaderView(headerPosition, headerId);
+            }
+        }
+
+        @Override
+        public void onStickyHeaderOffsetChanged(int offset) {
+            setHeaderOffet(offset);
+        }
+
+        @Override
+        public void onStickyHeaderCleared() {
+            dropStickyHeaderLayer();
+            if (mHeader != null) {
+                removeView(mHeader);
+                if (mStickyHeaderPool != null) {
+                    mStickyHeaderPool.put(mHeader, mHeaderViewType);
                 }
-                // Reset mHeaderOffset to null ensuring
-                // that it will be set on the header and
-                // not skipped for performance reasons.
-                mHeaderOffset = null;
+                mHeader = null;
+            } else {
+                // the drawn header goes away with the next frame
+                mList.invalidate();
             }
+
+            // reset the top clipping length
+            mList.setTopClippingLength(0);
+            updateHeaderVisibilities();
         }
 
-        int headerOffset = stickyHeaderTop();
+        @Override
+        public int getStickyHeaderHeight() {
+            return StickyListHeadersListView.this.getStickyHeaderHeight();
+        }
 
-        // Calculate new header offset
-        // Skip looking at the first view. it never matters because it always
-        // results in a headerOffset = 0
-        for (int i = 0; i < mList.getChildCount(); i++) {
-            final View child = mList.getChildAt(i);
-            final boolean doesChildHaveHeader = child instanceof WrapperView && ((WrapperView) child).hasHeader();
-            final boolean isChildFooter = mList.containsFooterView(child);
-            if (child.getTop() >= stickyHeaderTop() && (doesChildHaveHeader || isChildFooter)) {
-                headerOffset = Math.min(child.getTop() - mHeader.getMeasuredHeight(), headerOffset);
-                break;
+    }
+
+    private void updateHeaderView(int headerPosition, long headerId) {
+        final int headerViewType = mAdapter.getHeaderViewType(headerPosition);
+        View convertView = mHeader;
+        if (mHeader == null || headerViewType != mHeaderViewType
+                || headerViewType == Adapter.IGNORE_ITEM_VIEW_TYPE) {
+            // headers of the ignored type are never converted
+            convertView = mStickyHeaderPool.get(headerViewType);
+        }
+        final View header = mAdapter.getHeaderView(headerPosition, convertView, this);
+        if (mHeader != header) {
+            if (header == null) {
+                throw new NullPointerException("header may not be null");
             }
+            if (mHeader != null && headerViewType != mHeaderViewType) {
+                // swapHeader() detaches it
+                mStickyHeaderPool.put(mHeader, mHeaderViewType);
+            }
+            swapHeader(header);
+        }
+        mHeaderViewType = headerViewType;
+        ensureHeaderHasCorrectLayoutParams(mHeader);
+        measureHeaderIfNeeded(mHeader);
+        cacheHeaderHeight(headerId, mHeader.getMeasuredHeight());
+        updateStickyHeaderLayer();
+        if(mOnStickyHeaderChangedListener != null) {
+            mOnStickyHeaderChangedListener.onStickyHeaderChanged(this, mHeader, headerPosition, headerId);
         }
+    }
 
-        setHeaderOffet(headerOffset);
+    private void updateRenderedHeader(int headerPosition, long headerId) {
+        mRenderedHeaderHeight = mHeaderRenderer.getHeaderHeight(headerId, getHeaderWidth());
+        cacheHeaderHeight(headerId, mRenderedHeaderHeight);
+        if (mOnStickyHeaderChangedListener != null) {
+            mOnStickyHeaderChangedListener.onStickyHeaderChanged(this, null, headerPosition, headerId);
+        }
+    }
 
-        if (!mIsDrawingListUnderStickyHeader) {
-            mList.setTopClippingLength(mHeader.getMeasuredHeight()
-                    + mHeaderOffset);
+    private int getStickyHeaderHeight() {
+        return mHeader != null ? mHeader.getMeasuredHeight() : mRenderedHeaderHeight;
+    }
+
+    // While the list scrolls the sticky header mostly just moves, with a hardware layer
+    // every frame is a texture blit instead of a redraw of the whole header.
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void updateStickyHeaderLayer() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
         }
+        final boolean isScrolling = mScrollState != OnScrollListener.SCROLL_STATE_IDLE;
+        final View header = mIsCachingStickyHeaderDuringScroll && isScrolling ? mHeader : null;
+        if (mLayeredHeader != header) {
+            dropStickyHeaderLayer();
+            if (header != null) {
+                header.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+                mLayeredHeader = header;
+            }
+        }
+    }
 
-        updateHeaderVisibilities();
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void dropStickyHeaderLayer() {
+        if (mLayeredHeader != null) {
+            mLayeredHeader.setLayerType(View.LAYER_TYPE_NONE, null);
+            mLayeredHeader = null;
+        }
     }
 
     private void swapHeader(View newHeader) {
@@ -389,14 +521,7 @@ public class StickyListHeadersListView extends FrameLayout {
         mHeader = newHeader;
         addView(mHeader);
         if (mOnHeaderClickListener != null) {
-            mHeader.setOnClickListener(new OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    mOnHeaderClickListener.onHeaderClick(
-                            StickyListHeadersListView.this, mHeader,
-                            mHeaderPosition, mHeaderId, true);
-                }
-            });
+            mHeader.setOnClickListener(mStickyHeaderClickHandler);
         }
         mHeader.setClickable(true);
     }
@@ -404,68 +529,46 @@ public class StickyListHeadersListView extends FrameLayout {
     // hides the headers in the list under the sticky header.
     // Makes sure the other ones are showing
     private void updateHeaderVisibilities() {
-        int top = stickyHeaderTop();
-        int childCount = mList.getChildCount();
-        for (int i = 0; i < childCount; i++) {
-
-            // ensure child is a wrapper view
-            View child = mList.getChildAt(i);
-            if (!(child instanceof WrapperView)) {
-                continue;
-            }
-
-            // ensure wrapper view child has a header
-            WrapperView wrapperViewChild = (WrapperView) child;
-            if (!wrapperViewChild.hasHeader()) {
-                continue;
-            }
-
-            // update header views visibility
-            View childHeader = wrapperViewChild.mHeader;
-            if (wrapperViewChild.getTop() < top) {
-                if (childHeader.getVisibility() != View.INVISIBLE) {
-                    childHeader.setVisibility(View.INVISIBLE);
-                }
-            } else {
-                if (childHeader.getVisibility() != View.VISIBLE) {
-                    childHeader.setVisibility(View.VISIBLE);
-                }
-            }
-        }
+        mHeaderVisibilityWrites += mList.updateHeaderVisibilities(stickyHeaderTop());
     }
 
     // Wrapper around setting the header offset in different ways depending on
     // the API version
     @SuppressLint("NewApi")
     private void setHeaderOffet(int offset) {
-        if (mHeaderOffset == null || mHeaderOffset != offset) {
-            mHeaderOffset = offset;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                mHeader.setTranslationY(mHeaderOffset);
-            } else {
-                MarginLayoutParams params = (MarginLayoutParams) mHeader.getLayoutParams();
-                params.topMargin = mHeaderOffset;
-                mHeader.setLayoutParams(params);
-            }
-            if (mOnStickyHeaderOffsetChangedListener != null) {
-                mOnStickyHeaderOffsetChangedListener.onStickyHeaderOffsetChanged(this, mHeader, -mHeaderOffset);
-            }
+        if (mHeader == null) {
+            // a drawn header is positioned when the list draws
+            mList.invalidate();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mHeader.setTranslationY(offset);
+        } else {
+            MarginLayoutParams params = (MarginLayoutParams) mHeader.getLayoutParams();
+            params.topMargin = offset;
+            mHeader.setLayoutParams(params);
+        }
+        if (mOnStickyHeaderOffsetChangedListener != null) {
+            mOnStickyHeaderOffsetChangedListener.onStickyHeaderOffsetChanged(this, mHeader, -offset);
         }
     }
 
     @Override
     public boolean dispatchTouchEvent(MotionEvent ev) {
-        int action = ev.getAction() & MotionEvent.ACTION_MASK;
-        if (action == MotionEvent.ACTION_DOWN) {
-            mDownY = ev.getY();
-            mHeaderOwnsTouch = mHeader != null && mDownY <= mHeader.getHeight() + mHeaderOffset;
-        }
-
         boolean handled;
-        if (mHeaderOwnsTouch) {
-            if (mHeader != null && Math.abs(mDownY - ev.getY()) <= mTouchSlop) {
-                handled = mHeader.dispatchTouchEvent(ev);
-            } else {
+        switch (mStickyHeader.routeTouch(ev.getAction() & MotionEvent.ACTION_MASK, ev.getY())) {
+            case StickyHeaderTracker.TOUCH_HEADER:
+            case StickyHeaderTracker.TOUCH_CLICK:
+                if (mHeader != null) {
+                    // the header view clicks itself when the touch ends on it
+                    handled = mHeader.dispatchTouchEvent(ev);
+                } else {
+                    // a drawn header has no view, it is clicked when the touch ends on it
+                    if ((ev.getAction() & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_UP) {
+                        onStickyHeaderClick();
+                    }
+                    handled = true;
+                }
+                break;
+            case StickyHeaderTracker.TOUCH_SCROLL:
                 if (mHeader != null) {
                     MotionEvent cancelEvent = MotionEvent.obtain(ev);
                     cancelEvent.setAction(MotionEvent.ACTION_CANCEL);
@@ -473,14 +576,15 @@ public class StickyListHeadersListView extends FrameLayout {
                     cancelEvent.recycle();
                 }
 
-                MotionEvent downEvent = MotionEvent.obtain(ev.getDownTime(), ev.getEventTime(), ev.getAction(), ev.getX(), mDownY, ev.getMetaState());
+                MotionEvent downEvent = MotionEvent.obtain(ev.getDownTime(), ev.getEventTime(), ev.getAction(), ev.getX(),
+                        mStickyHeader.getDownY(), ev.getMetaState());
                 downEvent.setAction(MotionEvent.ACTION_DOWN);
                 handled = mList.dispatchTouchEvent(downEvent);
                 downEvent.recycle();
-                mHeaderOwnsTouch = false;
-            }
-        } else {
-            handled = mList.dispatchTouchEvent(ev);
+                break;
+            default:
+                handled = mList.dispatchTouchEvent(ev);
+                break;
         }
 
         return handled;
@@ -490,12 +594,20 @@ public class StickyListHeadersListView extends FrameLayout {
 
         @Override
         public void onChanged() {
+            mHeaderHeights.clear();
+            if (mAdapter.isDispatchingItemRangeChange()) {
+                // the sticky header is kept and resolved again on the next scroll update
+                return;
+            }
             clearHeader();
         }
 
         @Override
         public void onInvalidated() {
+            mHeaderHeights.clear();
             clearHeader();
+            mStickyHeaderPool.clear();
+            mMeasuringHeaderPool.clear();
         }
 
     }
@@ -509,7 +621,7 @@ public class StickyListHeadersListView extends FrameLayout {
                 mOnScrollListenerDelegate.onScroll(view, firstVisibleItem,
                         visibleItemCount, totalItemCount);
             }
-            updateOrClearHeader(mList.getFixedFirstVisibleItem());
+            updateOrClearHeader();
         }
 
         @Override
@@ -518,6 +630,11 @@ public class StickyListHeadersListView extends FrameLayout {
                 mOnScrollListenerDelegate.onScrollStateChanged(view,
                         scrollState);
             }
+            mScrollState = scrollState;
+            if (scrollState == OnScrollListener.SCROLL_STATE_FLING) {
+                mList.finishSectionAnimation();
+            }
+            updateStickyHeaderLayer();
         }
 
     }
@@ -529,7 +646,7 @@ public class StickyListHeadersListView extends FrameLayout {
             // onScroll is not called often at all before froyo
             // therefor we need to update the header here as well.
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) {
-                updateOrClearHeader(mList.getFixedFirstVisibleItem());
+                updateOrClearHeader();
             }
             if (mHeader != null) {
                 if (mClippingToPadding) {
@@ -540,6 +657,18 @@ public class StickyListHeadersListView extends FrameLayout {
                 } else {
                     drawChild(canvas, mHeader, 0);
                 }
+            } else if (mHeaderRenderer != null && mStickyHeader.hasHeader()) {
+                final int headerOffset = mStickyHeader.getHeaderOffset();
+                mRenderedHeaderBounds.set(mPaddingLeft, headerOffset, mPaddingLeft + getHeaderWidth(),
+                        headerOffset + mRenderedHeaderHeight);
+                if (mClippingToPadding) {
+                    canvas.save();
+                    canvas.clipRect(0, mPaddingTop, getRight(), getBottom());
+                    mHeaderRenderer.drawHeader(canvas, mStickyHeader.getHeaderId(), mRenderedHeaderBounds);
+                    canvas.restore();
+                } else {
+                    mHeaderRenderer.drawHeader(canvas, mStickyHeader.getHeaderId(), mRenderedHeaderBounds);
+                }
             }
         }
 
@@ -557,24 +686,205 @@ public class StickyListHeadersListView extends FrameLayout {
 
     }
 
+    private class StickyHeaderClickHandler implements OnClickListener {
+
+        @Override
+        public void onClick(View v) {
+            onStickyHeaderClick();
+        }
+
+    }
+
+    private void onStickyHeaderClick() {
+        final int headerPosition = mStickyHeader.getHeaderPosition();
+        if (mOnHeaderClickListener != null && headerPosition >= 0) {
+            mOnHeaderClickListener.onHeaderClick(
+                    StickyListHeadersListView.this, mHeader,
+                    headerPosition, mStickyHeader.getHeaderId(), true);
+        }
+    }
+
+    private class AdapterWrapperSectionIndexReadyHandler implements
+            AdapterWrapper.OnSectionIndexReadyListener {
+
+        @Override
+        public void onSectionIndexReady() {
+            if (mOnSectionIndexReadyListener != null) {
+                mOnSectionIndexReadyListener.onSectionIndexReady(StickyListHeadersListView.this);
+            }
+        }
+
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private class MemoryTrimCallbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                trimRecycledHeaders();
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimRecycledHeaders();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+    }
+
+    /**
+     * Creates headers and list items one at a time whenever the main thread is idle.
+     * Every step is posted as a new message so input and drawing always go first.
+     */
+    private class Prewarmer implements Runnable, MessageQueue.IdleHandler {
+
+        private final AdapterWrapper mTarget;
+        private int mRemainingHeaders;
+        private int mRemainingItems;
+        private int mStartPosition = -1;
+        private int mNextItemPosition;
+        private int mNextHeaderSection = -1;
+        private boolean mIsCancelled;
+
+        Prewarmer(AdapterWrapper target, int headers, int items) {
+            mTarget = target;
+            mRemainingHeaders = headers;
+            mRemainingItems = items;
+        }
+
+        void schedule() {
+            post(this);
+        }
+
+        void cancel() {
+            mIsCancelled = true;
+            removeCallbacks(this);
+            Looper.myQueue().removeIdleHandler(this);
+        }
+
+        @Override
+        public void run() {
+            if (!mIsCancelled) {
+                Looper.myQueue().addIdleHandler(this);
+            }
+        }
+
+        @Override
+        public boolean queueIdle() {
+            if (!mIsCancelled && mAdapter == mTarget && mTarget.mDelegate != null && step()) {
+                schedule();
+            } else if (mPrewarmer == this) {
+                mPrewarmer = null;
+            }
+            // a new idle handler is added by the next scheduled step
+            return false;
+        }
+
+        // Creates one view, alternating between items and headers.
+        // Returns true if there is more to create.
+        private boolean step() {
+            final int count = mTarget.getCount();
+            if (count == 0) {
+                return false;
+            }
+            if (mStartPosition < 0) {
+                // start right below what is on screen, that is what the first scroll shows
+                mStartPosition = Math.max(0, mList.getLastVisiblePosition() - mList.getHeaderViewsCount() + 1);
+                mNextItemPosition = mStartPosition;
+            }
+            final boolean prewarmItem = mRemainingItems > 0 && mNextItemPosition < count
+                    && (mRemainingItems >= mRemainingHeaders || mRemainingHeaders == 0);
+            if (prewarmItem) {
+                mTarget.prewarmItem(mNextItemPosition++, mList);
+                mRemainingItems--;
+            } else if (mRemainingHeaders > 0) {
+                mTarget.prewarmHeader(nextHeaderPosition(count), mList);
+                mRemainingHeaders--;
+            } else {
+                return false;
+            }
+            return mRemainingHeaders > 0 || (mRemainingItems > 0 && mNextItemPosition < count);
+        }
+
+        // the start of the next section below the screen, or any position while the
+        // section index is built in the background
+        private int nextHeaderPosition(int count) {
+            final int start = Math.min(mStartPosition, count - 1);
+            final SectionIndex index = mTarget.getSectionIndex();
+            if (index == null) {
+                return start;
+            }
+            if (mNextHeaderSection < 0) {
+                mNextHeaderSection = index.getSectionForPosition(start) + 1;
+            }
+            if (mNextHeaderSection >= index.getSectionCount()) {
+                return start;
+            }
+            return index.getPositionForSection(mNextHeaderSection++);
+        }
+
+    }
+
     private boolean isStartOfSection(int position) {
-        return position == 0 || mAdapter.getHeaderId(position) != mAdapter.getHeaderId(position - 1);
+        return mAdapter.isSectionStart(position);
     }
 
     public int getHeaderOverlap(int position) {
         boolean isStartOfSection = isStartOfSection(Math.max(0, position - getHeaderViewsCount()));
         if (!isStartOfSection) {
-            View header = mAdapter.getHeaderView(position, null, mList);
-            if (header == null) {
-                throw new NullPointerException("header may not be null");
-            }
-            ensureHeaderHasCorrectLayoutParams(header);
-            measureHeader(header);
-            return header.getMeasuredHeight();
+            return getHeaderHeight(position);
         }
         return 0;
     }
 
+    // Measured header heights are cached per header id for the current width.
+    // A header is only bound and measured on a cache miss, reusing the header
+    // last measured for the same header view type.
+    private int getHeaderHeight(int position) {
+        final long headerId = mAdapter.getHeaderId(position);
+        if (mHeaderRenderer != null) {
+            return mHeaderRenderer.getHeaderHeight(headerId, getHeaderWidth());
+        }
+        clearHeaderHeightsIfWidthChanged();
+        final int cachedHeight = mHeaderHeights.get(headerId, -1);
+        if (cachedHeight >= 0) {
+            return cachedHeight;
+        }
+
+        final int headerViewType = mAdapter.getHeaderViewType(position);
+        View header = mAdapter.getHeaderView(position, mMeasuringHeaderPool.get(headerViewType), mList);
+        if (header == null) {
+            throw new NullPointerException("header may not be null");
+        }
+        ensureHeaderHasCorrectLayoutParams(header);
+        measureHeader(header);
+        final int height = header.getMeasuredHeight();
+        mMeasuringHeaderPool.put(header, headerViewType);
+        cacheHeaderHeight(headerId, height);
+        return height;
+    }
+
+    private void cacheHeaderHeight(long headerId, int height) {
+        clearHeaderHeightsIfWidthChanged();
+        if (mHeaderHeights.size() >= MAX_CACHED_HEADER_HEIGHTS) {
+            mHeaderHeights.clear();
+        }
+        mHeaderHeights.put(headerId, height);
+    }
+
+    private void clearHeaderHeightsIfWidthChanged() {
+        final int width = getHeaderWidth();
+        if (mHeaderHeightsWidth != width) {
+            mHeaderHeights.clear();
+            mHeaderHeightsWidth = width;
+        }
+    }
+
     private int stickyHeaderTop() {
         return mStickyHeaderTopOffset + (mClippingToPadding ? mPaddingTop : 0);
     }
@@ -586,7 +896,7 @@ public class StickyListHeadersListView extends FrameLayout {
         if (!areHeadersSticky) {
             clearHeader();
         } else {
-            updateOrClearHeader(mList.getFixedFirstVisibleItem());
+            updateOrClearHeader();
         }
         // invalidating the list will trigger dispatchDraw()
         mList.invalidate();
@@ -596,6 +906,21 @@ public class StickyListHeadersListView extends FrameLayout {
         return mAreHeadersSticky;
     }
 
+    /**
+     * Draw the sticky header through a hardware layer while the list is being
+     * dragged or flung. The header is rendered once per header instead of once
+     * per frame, which helps when it has images or shadows. Only has an effect
+     * on honeycomb and later. Defaults to false.
+     */
+    public void setCachingStickyHeaderDuringScroll(boolean cachingStickyHeaderDuringScroll) {
+        mIsCachingStickyHeaderDuringScroll = cachingStickyHeaderDuringScroll;
+        updateStickyHeaderLayer();
+    }
+
+    public boolean isCachingStickyHeaderDuringScroll() {
+        return mIsCachingStickyHeaderDuringScroll;
+    }
+
     /**
      * Use areHeadersSticky() method instead
      */
@@ -611,7 +936,7 @@ public class StickyListHeadersListView extends FrameLayout {
      */
     public void setStickyHeaderTopOffset(int stickyHeaderTopOffset) {
         mStickyHeaderTopOffset = stickyHeaderTopOffset;
-        updateOrClearHeader(mList.getFixedFirstVisibleItem());
+        updateOrClearHeader();
     }
 
     public int getStickyHeaderTopOffset() {
@@ -629,21 +954,52 @@ public class StickyListHeadersListView extends FrameLayout {
         return mIsDrawingListUnderStickyHeader;
     }
 
+    /**
+     * Let the list build the sections used for fast scrolling from the header ids of the
+     * adapter instead of the adapter's own {@link SectionIndexer}. Every run of equal header
+     * ids is one section and {@link SectionIndexer#getSections()} returns the header ids,
+     * or the titles of a {@link StickyListHeadersSectionTitleAdapter}.
+     * Looking up a section or a position is a binary search so fast scrolling stays cheap
+     * even for very large lists.
+     *
+     * @param usingHeaderIdsAsSections
+     *          true to derive sections from header ids, false to use the adapter's sections
+     */
+    public void setUsingHeaderIdsAsSections(boolean usingHeaderIdsAsSections) {
+        if (mIsUsingHeaderIdsAsSections == usingHeaderIdsAsSections) {
+            return;
+        }
+        mIsUsingHeaderIdsAsSections = usingHeaderIdsAsSections;
+        if (mAdapter == null || mAdapter.mDelegate == null) {
+            return;
+        }
+        if (mAdapter instanceof SectionIndexerAdapterWrapper
+                && (usingHeaderIdsAsSections || mAdapter.mDelegate instanceof SectionIndexer)) {
+            // keeps the scroll position and the section index, the fast scroller
+            // reads the sections again when the adapter notifies it
+            ((SectionIndexerAdapterWrapper) mAdapter).setUsingHeaderIds(usingHeaderIdsAsSections);
+            return;
+        }
+        // the list only finds out whether the adapter is a section indexer through setAdapter()
+        final int position = mList.getFirstVisiblePosition();
+        final View firstChild = mList.getChildAt(0);
+        final int top = firstChild == null ? 0 : firstChild.getTop() - mList.getPaddingTop();
+        attachAdapter(mAdapter.mDelegate);
+        mList.setSelectionFromTop(position, top);
+    }
+
+    public boolean isUsingHeaderIdsAsSections() {
+        return mIsUsingHeaderIdsAsSections;
+    }
+
     public void setOnHeaderClickListener(OnHeaderClickListener listener) {
         mOnHeaderClickListener = listener;
         if (mAdapter != null) {
             if (mOnHeaderClickListener != null) {
-                mAdapter.setOnHeaderClickListener(new AdapterWrapperHeaderClickHandler());
+                mAdapter.setOnHeaderClickListener(mAdapterHeaderClickHandler);
 
                 if (mHeader != null) {
-                    mHeader.setOnClickListener(new OnClickListener() {
-                        @Override
-                        public void onClick(View v) {
-                            mOnHeaderClickListener.onHeaderClick(
-                                    StickyListHeadersListView.this, mHeader,
-                                    mHeaderPosition, mHeaderId, true);
-                        }
-                    });
+                    mHeader.setOnClickListener(mStickyHeaderClickHandler);
                 }
             } else {
                 mAdapter.setOnHeaderClickListener(null);
@@ -651,6 +1007,105 @@ public class StickyListHeadersListView extends FrameLayout {
         }
     }
 
+    /**
+     * Draw headers with {@code renderer} instead of with the views returned by
+     * {@link StickyListHeadersAdapter#getHeaderView(int, View, ViewGroup)}. No header views
+     * are created, measured or laid out, which makes simple headers in long lists cheaper.
+     * Header click listeners are called with a null header view. Pass null to go back to
+     * header views.
+     */
+    public void setHeaderRenderer(StickyHeaderRenderer renderer) {
+        if (mHeaderRenderer == renderer) {
+            return;
+        }
+        mHeaderRenderer = renderer;
+        clearHeader();
+        if (mAdapter != null) {
+            mAdapter.setHeaderRenderer(renderer);
+            if (renderer != null) {
+                mStickyHeaderPool.clear();
+                mMeasuringHeaderPool.clear();
+            }
+            // every visible header has to be rebound
+            mList.invalidateViews();
+        }
+    }
+
+    public StickyHeaderRenderer getHeaderRenderer() {
+        return mHeaderRenderer;
+    }
+
+    /**
+     * Build the index of where sections start on {@code executor} instead of on the main
+     * thread when the adapter is set or its data changes. Until the index is ready the list
+     * compares header ids of neighbouring positions directly. Your adapter's
+     * {@link StickyListHeadersAdapter#getHeaderId(int)} will be called from the executor's
+     * threads so it must be safe to call off the main thread.
+     *
+     * @param executor
+     *          the executor to build the index on, or null to build it on the main thread
+     */
+    public void setSectionIndexExecutor(Executor executor) {
+        mSectionIndexExecutor = executor;
+        if (mAdapter != null) {
+            mAdapter.setSectionIndexExecutor(executor);
+        }
+    }
+
+    public Executor getSectionIndexExecutor() {
+        return mSectionIndexExecutor;
+    }
+
+    public void setOnSectionIndexReadyListener(OnSectionIndexReadyListener listener) {
+        mOnSectionIndexReadyListener = listener;
+    }
+
+    /**
+     * Sets how many recycled headers of each header view type are kept for reuse,
+     * headers above the limit are dropped. Recycled headers are also dropped when
+     * the system is low on memory.
+     */
+    public void setMaxRecycledHeaders(int maxRecycledHeaders) {
+        mMaxRecycledHeaders = maxRecycledHeaders;
+        if (mAdapter != null) {
+            mAdapter.getHeaderPool().setMaxPerType(maxRecycledHeaders);
+        }
+    }
+
+    public int getMaxRecycledHeaders() {
+        return mMaxRecycledHeaders;
+    }
+
+    /**
+     * @return the number of times a recycled header could be reused for the current adapter.
+     */
+    public int getRecycledHeaderHitCount() {
+        return mAdapter == null ? 0 : mAdapter.getHeaderPool().getHitCount();
+    }
+
+    /**
+     * @return the number of times no recycled header was available for the current adapter.
+     */
+    public int getRecycledHeaderMissCount() {
+        return mAdapter == null ? 0 : mAdapter.getHeaderPool().getMissCount();
+    }
+
+    /**
+     * @return the number of recycled headers dropped because the pool was full or
+     * memory was trimmed, for the current adapter.
+     */
+    public int getRecycledHeaderEvictionCount() {
+        return mAdapter == null ? 0 : mAdapter.getHeaderPool().getEvictionCount();
+    }
+
+    /**
+     * @return the number of in-list header visibility changes made while preparing
+     * the last drawn frame. Meant for debugging scroll performance.
+     */
+    public int getHeaderVisibilityWriteCount() {
+        return mLastFrameHeaderVisibilityWrites;
+    }
+
     public void setOnStickyHeaderOffsetChangedListener(OnStickyHeaderOffsetChangedListener listener) {
         mOnStickyHeaderOffsetChangedListener = listener;
     }
@@ -659,6 +1114,29 @@ public class StickyListHeadersListView extends FrameLayout {
         mOnStickyHeaderChangedListener = listener;
     }
 
+    /**
+     * Creates up to {@code headers} headers and {@code items} list items ahead of time,
+     * one view at a time while the main thread is idle. They are kept for reuse so the
+     * first scroll after setting an adapter does not have to inflate them. Views are
+     * created for the positions right below the visible ones, call this after
+     * {@link #setAdapter(StickyListHeadersAdapter)}. Headers beyond
+     * {@link #setMaxRecycledHeaders(int)} per header view type are not kept.
+     */
+    public void prewarm(int headers, int items) {
+        cancelPrewarm();
+        if (mAdapter != null) {
+            mPrewarmer = new Prewarmer(mAdapter, headers, items);
+            mPrewarmer.schedule();
+        }
+    }
+
+    private void cancelPrewarm() {
+        if (mPrewarmer != null) {
+            mPrewarmer.cancel();
+            mPrewarmer = null;
+        }
+    }
+
     public View getListChildAt(int index) {
         return mList.getChildAt(index);
     }
@@ -685,9 +1163,31 @@ public class StickyListHeadersListView extends FrameLayout {
         return true;
     }
 
+    /**
+     * Expands or collapses the items with {@code headerId} with one animation
+     * for the whole section, see
+     * {@link WrapperViewList#animateSection(StickyListHeadersAdapter, long, boolean, WrapperViewList.OnSectionAnimationEndListener)}.
+     */
+    void animateSection(long headerId, boolean collapse, WrapperViewList.OnSectionAnimationEndListener listener) {
+        if (mAdapter == null) {
+            if (listener != null) {
+                listener.onSectionAnimationEnd(headerId, collapse);
+            }
+            return;
+        }
+        mList.animateSection(mAdapter, headerId, collapse, listener);
+    }
+
 	/* ---------- ListView delegate methods ---------- */
 
     public void setAdapter(StickyListHeadersAdapter adapter) {
+        attachAdapter(adapter);
+    }
+
+    // Not overridable so the current adapter can be wrapped again
+    // without subclasses wrapping it a second time
+    private void attachAdapter(StickyListHeadersAdapter adapter) {
+        mList.finishSectionAnimation();
         if (adapter == null) {
             if (mAdapter instanceof SectionIndexerAdapterWrapper) {
                 ((SectionIndexerAdapterWrapper) mAdapter).mSectionIndexerDelegate = null;
@@ -701,46 +1201,94 @@ public class StickyListHeadersListView extends FrameLayout {
         }
         if (mAdapter != null) {
             mAdapter.unregisterDataSetObserver(mDataSetObserver);
+            mAdapter.setOnSectionIndexReadyListener(null);
         }
+        cancelPrewarm();
+        // the old sticky header goes back to the old pool, not the new adapter's
+        clearHeader();
 
-        if (adapter instanceof SectionIndexer) {
+        if (mIsUsingHeaderIdsAsSections) {
+            mAdapter = new SectionIndexerAdapterWrapper(getContext(), adapter, true);
+        } else if (adapter instanceof SectionIndexer) {
             mAdapter = new SectionIndexerAdapterWrapper(getContext(), adapter);
         } else {
             mAdapter = new AdapterWrapper(getContext(), adapter);
         }
+        mAdapter.getHeaderPool().setMaxPerType(mMaxRecycledHeaders);
+        mStickyHeaderPool = new HeaderPool(mAdapter.getHeaderViewTypeCount(), 1);
+        mMeasuringHeaderPool = new HeaderPool(mAdapter.getHeaderViewTypeCount(), 1);
         mDataSetObserver = new AdapterWrapperDataSetObserver();
         mAdapter.registerDataSetObserver(mDataSetObserver);
 
         if (mOnHeaderClickListener != null) {
-            mAdapter.setOnHeaderClickListener(new AdapterWrapperHeaderClickHandler());
+            mAdapter.setOnHeaderClickListener(mAdapterHeaderClickHandler);
         } else {
             mAdapter.setOnHeaderClickListener(null);
         }
 
-        mAdapter.setDivider(mDivider, mDividerHeight);
+        mAdapter.setOnSectionIndexReadyListener(new AdapterWrapperSectionIndexReadyHandler());
+        mAdapter.setSectionIndexExecutor(mSectionIndexExecutor);
+
+        mAdapter.setHeaderRenderer(mHeaderRenderer);
 
         mList.setAdapter(mAdapter);
-        clearHeader();
     }
 
     public StickyListHeadersAdapter getAdapter() {
         return mAdapter == null ? null : mAdapter.mDelegate;
     }
 
-    public void setDivider(Drawable divider) {
-        mDivider = divider;
+    /**
+     * Notifies the list that {@code itemCount} items were inserted into the adapter at
+     * {@code positionStart}. Call this instead of {@link android.widget.BaseAdapter#notifyDataSetChanged()}
+     * to only update the sections around the inserted items and keep the current sticky header.
+     */
+    public void notifyItemRangeInserted(int positionStart, int itemCount) {
         if (mAdapter != null) {
-            mAdapter.setDivider(mDivider, mDividerHeight);
+            mStickyHeader.invalidatePosition(positionStart, 0);
+            mAdapter.notifyItemRangeInserted(positionStart, itemCount);
+            updateOrClearHeader();
         }
     }
 
-    public void setDividerHeight(int dividerHeight) {
-        mDividerHeight = dividerHeight;
+    /**
+     * Notifies the list that the {@code itemCount} items starting at {@code positionStart}
+     * were removed from the adapter. Call this instead of
+     * {@link android.widget.BaseAdapter#notifyDataSetChanged()} to only update the sections
+     * around the removed items and keep the current sticky header.
+     */
+    public void notifyItemRangeRemoved(int positionStart, int itemCount) {
         if (mAdapter != null) {
-            mAdapter.setDivider(mDivider, mDividerHeight);
+            mStickyHeader.invalidatePosition(positionStart, 0);
+            mAdapter.notifyItemRangeRemoved(positionStart, itemCount);
+            updateOrClearHeader();
         }
     }
 
+    /**
+     * Notifies the list that the {@code itemCount} items starting at {@code positionStart}
+     * have changed, their header ids may have changed as well. Call this instead of
+     * {@link android.widget.BaseAdapter#notifyDataSetChanged()} to only update the sections
+     * around the changed items and keep the current sticky header.
+     */
+    public void notifyItemRangeChanged(int positionStart, int itemCount) {
+        if (mAdapter != null) {
+            mStickyHeader.invalidatePosition(positionStart, itemCount);
+            mAdapter.notifyItemRangeChanged(positionStart, itemCount);
+            updateOrClearHeader();
+        }
+    }
+
+    public void setDivider(Drawable divider) {
+        mDivider = divider;
+        mList.setWrapperDivider(mDivider, mDividerHeight);
+    }
+
+    public void setDividerHeight(int dividerHeight) {
+        mDividerHeight = dividerHeight;
+        mList.setWrapperDivider(mDivider, mDividerHeight);
+    }
+
     public Drawable getDivider() {
         return mDivider;
     }
@@ -0,0 +1,22 @@
+package se.emilsjolander.stickylistheaders;
+
+/**
+ * An optional extension of {@link StickyListHeadersAdapter} for lists which
+ * derive their fast scroll sections from header ids, see
+ * {@link StickyListHeadersListView#setUsingHeaderIdsAsSections(boolean)}.
+ * Without it the fast scroll overlay shows the header ids themselves.
+ */
+public interface StickyListHeadersSectionTitleAdapter extends StickyListHeadersAdapter {
+	/**
+	 * Get the title the fast scroll overlay shows for the section starting at
+	 * the specified position. Titles are requested again only after the data
+	 * set changed.
+	 *
+	 * @param position
+	 * The position of the first item of the section within the adapter's data
+	 * set.
+	 * @return
+	 * The section's title, shown through its {@link Object#toString()}.
+	 */
+	Object getSectionTitle(int position);
+}
@@ -0,0 +1,39 @@
+package se.emilsjolander.stickylistheaders;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * An optional extension of {@link StickyListHeadersAdapter} for adapters with
+ * more than one kind of header view. Recycled headers are only handed back to
+ * {@link #getHeaderView(int, View, ViewGroup)} for positions with the same
+ * header view type.
+ */
+public interface StickyListHeadersViewTypeAdapter extends StickyListHeadersAdapter {
+	/**
+	 * Get the type of header View that will be created by
+	 * {@link #getHeaderView(int, View, ViewGroup)} for the specified position.
+	 *
+	 * @param position
+	 * The position of the item within the adapter's data set whose header view
+	 * type we want.
+	 * @return
+	 * An integer representing the type of header View. Two header views should
+	 * share a type if one can be converted to the other in
+	 * {@link #getHeaderView(int, View, ViewGroup)}. Note: Integers must be in the
+	 * range 0 to {@link #getHeaderViewTypeCount()} - 1.
+	 * {@link android.widget.Adapter#IGNORE_ITEM_VIEW_TYPE} can also be returned
+	 * for headers which should never be recycled.
+	 */
+	int getHeaderViewType(int position);
+
+	/**
+	 * Returns the number of types of header Views that will be created by
+	 * {@link #getHeaderView(int, View, ViewGroup)}. This must not change while
+	 * the adapter is set on a list.
+	 *
+	 * @return
+	 * The number of types of header Views that will be created by this adapter.
+	 */
+	int getHeaderViewTypeCount();
+}
@@ -2,8 +2,8 @@ package se.emilsjolander.stickylistheaders;
 
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.drawable.Drawable;
-import android.os.Build;
+import android.graphics.Rect;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
@@ -17,17 +17,38 @@ import android.view.ViewParent;
 public class WrapperView extends ViewGroup {
 
 	View mItem;
-	Drawable mDivider;
+	// room left above the item for the divider, which is drawn by the list
 	int mDividerHeight;
 	View mHeader;
+	int mHeaderViewType;
+	// the adapter position this wrapper was last bound to
+	int mItemPosition;
 	int mItemTop;
 
+	// set instead of mHeader when headers are drawn by a renderer
+	StickyHeaderRenderer mHeaderRenderer;
+	long mRenderedHeaderId;
+	int mRenderedHeaderHeight;
+	int mRenderedHeaderVisibility = View.VISIBLE;
+	OnClickListener mRenderedHeaderClickListener;
+	private Rect mRenderedHeaderBounds;
+	private boolean mIsRenderedHeaderPressed;
+
+	// what the children were last measured with, a child is only measured again
+	// if it was replaced, asked for a new layout or the width changed
+	private int mLastChildWidthMeasureSpec;
+	private View mMeasuredHeader;
+	private View mMeasuredItem;
+
+	// the part of the item and its divider shown while its section animates
+	private float mItemHeightFraction = 1f;
+
 	WrapperView(Context c) {
 		super(c);
 	}
 
 	public boolean hasHeader() {
-		return mHeader != null;
+		return mHeader != null || mHeaderRenderer != null;
 	}
 	
 	public View getItem() {
@@ -38,7 +59,7 @@ public class WrapperView extends ViewGroup {
 		return mHeader;
 	}
 
-	void update(View item, View header, Drawable divider, int dividerHeight) {
+	void update(View item, View header, int dividerHeight) {
 		
 		//every wrapperview must have a list item
 		if (item == null) {
@@ -69,9 +90,59 @@ public class WrapperView extends ViewGroup {
 			}
 		}
 
-		if (this.mDivider != divider) {
-			this.mDivider = divider;
+		setDividerHeight(dividerHeight);
+	}
+
+	void setDividerHeight(int dividerHeight) {
+		if (this.mDividerHeight != dividerHeight) {
 			this.mDividerHeight = dividerHeight;
+			requestLayout();
+		}
+	}
+
+	/** Returns {@code true} if the divider should be drawn above the item. */
+	boolean hasDivider() {
+		return !hasHeader() && mDividerHeight > 0 && mItem != null && mItem.getVisibility() != View.GONE;
+	}
+
+	/**
+	 * Draw the header with {@code renderer} instead of with a header view, a
+	 * null renderer removes the drawn header. Call after
+	 * {@link #update(View, View, int)} without a header view.
+	 */
+	void updateRenderedHeader(StickyHeaderRenderer renderer, long headerId) {
+		if (mHeaderRenderer != renderer || (renderer != null && mRenderedHeaderId != headerId)) {
+			mHeaderRenderer = renderer;
+			mRenderedHeaderId = headerId;
+			requestLayout();
+		}
+		if (mRenderedHeaderVisibility != View.VISIBLE) {
+			mRenderedHeaderVisibility = View.VISIBLE;
+			invalidate();
+		}
+	}
+
+	/**
+	 * Shows only {@code fraction} of the item and its divider, the item keeps
+	 * its size and is clipped. Only marks this wrapper for the next layout, the
+	 * list lays out all wrappers of an animating section in one pass.
+	 */
+	void setItemHeightFraction(float fraction) {
+		if (mItemHeightFraction != fraction) {
+			mItemHeightFraction = fraction;
+			forceLayout();
+		}
+	}
+
+	int getHeaderVisibility() {
+		return mHeader != null ? mHeader.getVisibility() : mRenderedHeaderVisibility;
+	}
+
+	void setHeaderVisibility(int visibility) {
+		if (mHeader != null) {
+			mHeader.setVisibility(visibility);
+		} else if (mRenderedHeaderVisibility != visibility) {
+			mRenderedHeaderVisibility = visibility;
 			invalidate();
 		}
 	}
@@ -82,42 +153,68 @@ public class WrapperView extends ViewGroup {
 		int childWidthMeasureSpec = MeasureSpec.makeMeasureSpec(measuredWidth,
 				MeasureSpec.EXACTLY);
 		int measuredHeight = 0;
+		final boolean isSameWidth = childWidthMeasureSpec == mLastChildWidthMeasureSpec;
+		mLastChildWidthMeasureSpec = childWidthMeasureSpec;
 		
 		//measure header or divider. when there is a header visible it acts as the divider
 		if (mHeader != null) {
-			ViewGroup.LayoutParams params = mHeader.getLayoutParams();
-			if (params != null && params.height > 0) {
-				mHeader.measure(childWidthMeasureSpec,
+			if (needsMeasure(mHeader, mMeasuredHeader, isSameWidth)) {
+				ViewGroup.LayoutParams params = mHeader.getLayoutParams();
+				if (params != null && params.height > 0) {
+					mHeader.measure(childWidthMeasureSpec,
+							MeasureSpec.makeMeasureSpec(params.height, MeasureSpec.EXACTLY));
+				} else {
+					mHeader.measure(childWidthMeasureSpec,
+							MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+				}
+				mMeasuredHeader = mHeader;
+			}
+			measuredHeight += mHeader.getMeasuredHeight();
+		} else if (mHeaderRenderer != null) {
+			mRenderedHeaderHeight = mHeaderRenderer.getHeaderHeight(mRenderedHeaderId, measuredWidth);
+			measuredHeight += mRenderedHeaderHeight;
+		}
+		int contentHeight = 0;
+		if (!hasHeader() && mDividerHeight > 0&&mItem.getVisibility()!=View.GONE) {
+			contentHeight += mDividerHeight;
+		}
+		
+		//measure item. changing its visibility or layout params requests a layout
+		if (needsMeasure(mItem, mMeasuredItem, isSameWidth)) {
+			ViewGroup.LayoutParams params = mItem.getLayoutParams();
+			//enable hiding listview item,ex. toggle off items in group
+			if(mItem.getVisibility()==View.GONE){
+				mItem.measure(childWidthMeasureSpec,
+						MeasureSpec.makeMeasureSpec(0, MeasureSpec.EXACTLY));
+			}else if (params != null && params.height >= 0) {
+				mItem.measure(childWidthMeasureSpec,
 						MeasureSpec.makeMeasureSpec(params.height, MeasureSpec.EXACTLY));
 			} else {
-				mHeader.measure(childWidthMeasureSpec,
+				mItem.measure(childWidthMeasureSpec,
 						MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
 			}
-			measuredHeight += mHeader.getMeasuredHeight();
-		} else if (mDivider != null&&mItem.getVisibility()!=View.GONE) {
-			measuredHeight += mDividerHeight;
+			mMeasuredItem = mItem;
 		}
-		
-		//measure item
-		ViewGroup.LayoutParams params = mItem.getLayoutParams();
-        //enable hiding listview item,ex. toggle off items in group
-		if(mItem.getVisibility()==View.GONE){
-            mItem.measure(childWidthMeasureSpec,
-                    MeasureSpec.makeMeasureSpec(0, MeasureSpec.EXACTLY));
-        }else if (params != null && params.height >= 0) {
-			mItem.measure(childWidthMeasureSpec,
-					MeasureSpec.makeMeasureSpec(params.height, MeasureSpec.EXACTLY));
-            measuredHeight += mItem.getMeasuredHeight();
-		} else {
-			mItem.measure(childWidthMeasureSpec,
-					MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
-            measuredHeight += mItem.getMeasuredHeight();
+		if (mItem.getVisibility() != View.GONE) {
+			contentHeight += mItem.getMeasuredHeight();
+		}
+		if (mItemHeightFraction < 1f) {
+			contentHeight = (int) (contentHeight * mItemHeightFraction + 0.5f);
 		}
+		measuredHeight += contentHeight;
 
 
 		setMeasuredDimension(measuredWidth, measuredHeight);
 	}
 
+	/**
+	 * Returns {@code true} if {@code child} has to be measured, given the child
+	 * measured last time and whether the width is the same as back then.
+	 */
+	static boolean needsMeasure(View child, View measuredChild, boolean isSameWidth) {
+		return !isSameWidth || child != measuredChild || child.isLayoutRequested();
+	}
+
 	@Override
 	protected void onLayout(boolean changed, int l, int t, int r, int b) {
 
@@ -130,27 +227,61 @@ public class WrapperView extends ViewGroup {
 			int headerHeight = mHeader.getMeasuredHeight();
 			mHeader.layout(l, t, r, headerHeight);
 			mItemTop = headerHeight;
-			mItem.layout(l, headerHeight, r, b);
-		} else if (mDivider != null) {
-			mDivider.setBounds(l, t, r, mDividerHeight);
+		} else if (mHeaderRenderer != null) {
+			mItemTop = mRenderedHeaderHeight;
+		} else if (mDividerHeight > 0) {
 			mItemTop = mDividerHeight;
-			mItem.layout(l, mDividerHeight, r, b);
 		} else {
 			mItemTop = t;
-			mItem.layout(l, t, r, b);
 		}
+		if (mItemHeightFraction < 1f) {
+			// keep the item at its full size, the wrapper clips what is not shown
+			b = mItemTop + mItem.getMeasuredHeight();
+		}
+		mItem.layout(l, mItemTop, r, b);
 	}
 
 	@Override
 	protected void dispatchDraw(Canvas canvas) {
 		super.dispatchDraw(canvas);
-		if (mHeader == null && mDivider != null&&mItem.getVisibility()!=View.GONE) {
-			// Drawable.setBounds() does not seem to work pre-honeycomb. So have
-			// to do this instead
-			if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
-				canvas.clipRect(0, 0, getWidth(), mDividerHeight);
+		if (mHeaderRenderer != null) {
+			if (mRenderedHeaderVisibility == View.VISIBLE) {
+				if (mRenderedHeaderBounds == null) {
+					mRenderedHeaderBounds = new Rect();
+				}
+				mRenderedHeaderBounds.set(0, 0, getWidth(), mRenderedHeaderHeight);
+				mHeaderRenderer.drawHeader(canvas, mRenderedHeaderId, mRenderedHeaderBounds);
+			}
+		}
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent ev) {
+		if (mHeaderRenderer == null) {
+			return super.onTouchEvent(ev);
+		}
+		// a drawn header has no view to take the touch, hit-test its bounds instead
+		switch (ev.getAction() & MotionEvent.ACTION_MASK) {
+		case MotionEvent.ACTION_DOWN:
+			mIsRenderedHeaderPressed = ev.getY() < mRenderedHeaderHeight;
+			break;
+		case MotionEvent.ACTION_UP:
+			if (mIsRenderedHeaderPressed) {
+				mIsRenderedHeaderPressed = false;
+				if (ev.getY() >= 0 && ev.getY() < mRenderedHeaderHeight
+						&& mRenderedHeaderClickListener != null) {
+					mRenderedHeaderClickListener.onClick(this);
+				}
+				return true;
+			}
+			break;
+		case MotionEvent.ACTION_CANCEL:
+			if (mIsRenderedHeaderPressed) {
+				mIsRenderedHeaderPressed = false;
+				return true;
 			}
-			mDivider.draw(canvas);
+			break;
 		}
+		return mIsRenderedHeaderPressed || super.onTouchEvent(ev);
 	}
 }
@@ -7,8 +7,14 @@ import java.util.List;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
 import android.view.View;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.AnimationUtils;
+import android.view.animation.Interpolator;
 import android.widget.AbsListView;
 import android.widget.ListView;
 
@@ -18,35 +24,76 @@ class WrapperViewList extends ListView {
 		void onDispatchDrawOccurred(Canvas canvas);
 	}
 
+	interface OnSectionAnimationEndListener {
+		void onSectionAnimationEnd(long headerId, boolean collapsed);
+	}
+
+	static final int SECTION_ANIMATION_DURATION = 250;
+	private static final Interpolator SECTION_INTERPOLATOR = new AccelerateDecelerateInterpolator();
+
+	// looked up once, not for every list that is created
+	private static Field sSelectorRectField;
+	private static boolean sSelectorRectFieldResolved;
+
 	private LifeCycleListener mLifeCycleListener;
 	private List<View> mFooterViews;
 	private int mTopClippingLength;
+	private final Rect mClipBounds = new Rect();
 	private Rect mSelectorRect = new Rect();// for if reflection fails
-	private Field mSelectorPositionField;
-	private boolean mClippingToPadding = true;
+	// position the selector was last put on by touch, in touch mode the
+	// selector follows the touched item instead of the selected one
+	private int mTouchSelectorPosition = INVALID_POSITION;
+	// wrappers whose header is hidden behind the sticky header, rarely more than one
+	private final ArrayList<WrapperView> mHiddenHeaderWrappers = new ArrayList<WrapperView>(2);
+	boolean mClippingToPadding = true;
+	// drawn above every wrapper without a header in one pass over the children
+	private Drawable mWrapperDivider;
+	private int mWrapperDividerHeight;
+	// the section being expanded or collapsed, its adapter is null when none is
+	private StickyListHeadersAdapter mAnimatedSectionAdapter;
+	private long mAnimatedHeaderId;
+	private boolean mIsCollapsingSection;
+	private long mSectionAnimationStartTime;
+	private float mSectionAnimationFraction = 1f;
+	private OnSectionAnimationEndListener mOnSectionAnimationEndListener;
     private boolean mBlockLayoutChildren = false;
 
 	public WrapperViewList(Context context) {
 		super(context);
+		initSelectorRect();
+	}
+
+	WrapperViewList(Context context, AttributeSet attrs, int defStyle) {
+		super(context, attrs, defStyle);
+		initSelectorRect();
+	}
 
+	private void initSelectorRect() {
 		// Use reflection to be able to change the size/position of the list
 		// selector so it does not come under/over the header
-		try {
-			Field selectorRectField = AbsListView.class.getDeclaredField("mSelectorRect");
-			selectorRectField.setAccessible(true);
-			mSelectorRect = (Rect) selectorRectField.get(this);
+		final Field selectorRectField = getSelectorRectField();
+		if (selectorRectField != null) {
+			try {
+				mSelectorRect = (Rect) selectorRectField.get(this);
+			} catch (IllegalArgumentException e) {
+				e.printStackTrace();
+			} catch (IllegalAccessException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-				mSelectorPositionField = AbsListView.class.getDeclaredField("mSelectorPosition");
-				mSelectorPositionField.setAccessible(true);
+	private static Field getSelectorRectField() {
+		if (!sSelectorRectFieldResolved) {
+			sSelectorRectFieldResolved = true;
+			try {
+				sSelectorRectField = AbsListView.class.getDeclaredField("mSelectorRect");
+				sSelectorRectField.setAccessible(true);
+			} catch (NoSuchFieldException e) {
+				e.printStackTrace();
 			}
-		} catch (NoSuchFieldException e) {
-			e.printStackTrace();
-		} catch (IllegalArgumentException e) {
-			e.printStackTrace();
-		} catch (IllegalAccessException e) {
-			e.printStackTrace();
 		}
+		return sSelectorRectField;
 	}
 
 	@Override
@@ -72,23 +119,28 @@ class WrapperViewList extends ListView {
 	}
 
 	private int getSelectorPosition() {
-		if (mSelectorPositionField == null) { // not all supported andorid
-			// version have this variable
-			for (int i = 0; i < getChildCount(); i++) {
-				if (getChildAt(i).getBottom() == mSelectorRect.bottom) {
-					return i + getFixedFirstVisibleItem();
-				}
-			}
-		} else {
-			try {
-				return mSelectorPositionField.getInt(this);
-			} catch (IllegalArgumentException e) {
-				e.printStackTrace();
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
-			}
+		if (isInTouchMode()) {
+			return mTouchSelectorPosition;
+		}
+		return getSelectedItemPosition();
+	}
+
+	@Override
+	public boolean onInterceptTouchEvent(MotionEvent ev) {
+		if ((ev.getAction() & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN) {
+			// a scroll or fling must not run into rows that are still changing height
+			finishSectionAnimation();
 		}
-		return -1;
+		return super.onInterceptTouchEvent(ev);
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent ev) {
+		if ((ev.getAction() & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN) {
+			// the same position the list puts the selector on when pressed
+			mTouchSelectorPosition = pointToPosition((int) ev.getX(), (int) ev.getY());
+		}
+		return super.onTouchEvent(ev);
 	}
 
 	@Override
@@ -96,15 +148,176 @@ class WrapperViewList extends ListView {
 		positionSelectorRect();
 		if (mTopClippingLength != 0) {
 			canvas.save();
-			Rect clipping = canvas.getClipBounds();
-			clipping.top = mTopClippingLength;
-			canvas.clipRect(clipping);
+			canvas.getClipBounds(mClipBounds);
+			mClipBounds.top = mTopClippingLength;
+			canvas.clipRect(mClipBounds);
 			super.dispatchDraw(canvas);
+			drawWrapperDividers(canvas);
 			canvas.restore();
 		} else {
 			super.dispatchDraw(canvas);
+			drawWrapperDividers(canvas);
 		}
 		mLifeCycleListener.onDispatchDrawOccurred(canvas);
+		if (mAnimatedSectionAdapter != null) {
+			if (AnimationUtils.currentAnimationTimeMillis() - mSectionAnimationStartTime >= SECTION_ANIMATION_DURATION) {
+				finishSectionAnimation();
+			} else {
+				// the next frame of the animation is a single layout of the list
+				requestLayout();
+			}
+		}
+	}
+
+	private void drawWrapperDividers(Canvas canvas) {
+		if (mWrapperDivider == null) {
+			return;
+		}
+		final int saveCount = canvas.save();
+		if (mClippingToPadding) {
+			canvas.clipRect(getPaddingLeft(), getPaddingTop(), getWidth() - getPaddingRight(),
+					getHeight() - getPaddingBottom());
+		}
+		final boolean isClippingEachDivider = Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB;
+		final int childCount = getChildCount();
+		for (int i = 0; i < childCount; i++) {
+			final View child = getChildAt(i);
+			if (!(child instanceof WrapperView) || !((WrapperView) child).hasDivider()) {
+				continue;
+			}
+			final int top = child.getTop();
+			// the wrappers of an animating section can be shorter than the divider
+			final int bottom = Math.min(top + mWrapperDividerHeight, child.getBottom());
+			if (bottom <= top) {
+				continue;
+			}
+			mWrapperDivider.setBounds(child.getLeft(), top, child.getRight(), top + mWrapperDividerHeight);
+			if (isClippingEachDivider || bottom < top + mWrapperDividerHeight) {
+				// Drawable.setBounds() does not seem to work pre-honeycomb. So have
+				// to do this instead
+				canvas.save();
+				canvas.clipRect(child.getLeft(), top, child.getRight(), bottom);
+				mWrapperDivider.draw(canvas);
+				canvas.restore();
+			} else {
+				mWrapperDivider.draw(canvas);
+			}
+		}
+		canvas.restoreToCount(saveCount);
+	}
+
+	/**
+	 * Sets the divider drawn between items of the same section. Only the
+	 * room the wrappers leave for it depends on its height, so changing it
+	 * does not require binding the items again.
+	 */
+	void setWrapperDivider(Drawable divider, int dividerHeight) {
+		final int height = divider != null ? dividerHeight : 0;
+		mWrapperDivider = divider;
+		if (mWrapperDividerHeight != height) {
+			mWrapperDividerHeight = height;
+			// wrappers which are not on screen get the new height when they are bound
+			final int childCount = getChildCount();
+			for (int i = 0; i < childCount; i++) {
+				final View child = getChildAt(i);
+				if (child instanceof WrapperView) {
+					((WrapperView) child).setDividerHeight(height);
+				}
+			}
+		}
+		invalidate();
+	}
+
+	int getWrapperDividerHeight() {
+		return mWrapperDividerHeight;
+	}
+
+	/**
+	 * Expands or collapses the section with {@code headerId} by animating how
+	 * much of its items is shown. One value is animated for the whole section
+	 * and every frame costs a single layout of the list, however many of its
+	 * items are on screen. Starting an animation finishes the running one.
+	 *
+	 * @param adapter
+	 * Maps the positions of the wrappers to header ids.
+	 * @param listener
+	 * Told when the animation ended or was finished early, may be null.
+	 */
+	void animateSection(StickyListHeadersAdapter adapter, long headerId, boolean collapse,
+			OnSectionAnimationEndListener listener) {
+		finishSectionAnimation();
+		mAnimatedSectionAdapter = adapter;
+		mAnimatedHeaderId = headerId;
+		mIsCollapsingSection = collapse;
+		mOnSectionAnimationEndListener = listener;
+		mSectionAnimationStartTime = AnimationUtils.currentAnimationTimeMillis();
+		mSectionAnimationFraction = collapse ? 1f : 0f;
+		applySectionAnimationFraction();
+		requestLayout();
+	}
+
+	boolean isAnimatingSection() {
+		return mAnimatedSectionAdapter != null;
+	}
+
+	/**
+	 * Returns how much of the items with {@code headerId} is currently shown,
+	 * 1 unless their section is animating.
+	 */
+	float getItemHeightFraction(long headerId) {
+		if (mAnimatedSectionAdapter != null && mAnimatedHeaderId == headerId) {
+			return mSectionAnimationFraction;
+		}
+		return 1f;
+	}
+
+	/**
+	 * Jumps to the end of the running section animation, if any. Called when
+	 * the list is touched so a scroll or fling never races the animation.
+	 */
+	void finishSectionAnimation() {
+		if (mAnimatedSectionAdapter == null) {
+			return;
+		}
+		mSectionAnimationFraction = 1f;
+		applySectionAnimationFraction();
+		mAnimatedSectionAdapter = null;
+		final OnSectionAnimationEndListener listener = mOnSectionAnimationEndListener;
+		mOnSectionAnimationEndListener = null;
+		if (listener != null) {
+			// a collapsed section is hidden by the listener, not by the fraction
+			listener.onSectionAnimationEnd(mAnimatedHeaderId, mIsCollapsingSection);
+		}
+		requestLayout();
+	}
+
+	private void stepSectionAnimation() {
+		float t = (AnimationUtils.currentAnimationTimeMillis() - mSectionAnimationStartTime)
+				/ (float) SECTION_ANIMATION_DURATION;
+		t = SECTION_INTERPOLATOR.getInterpolation(Math.max(0f, Math.min(t, 1f)));
+		mSectionAnimationFraction = mIsCollapsingSection ? 1f - t : t;
+		applySectionAnimationFraction();
+	}
+
+	private void applySectionAnimationFraction() {
+		final int childCount = getChildCount();
+		for (int i = 0; i < childCount; i++) {
+			final View child = getChildAt(i);
+			if (child instanceof WrapperView) {
+				final WrapperView wrapperView = (WrapperView) child;
+				final int position = wrapperView.mItemPosition;
+				if (position < mAnimatedSectionAdapter.getCount()
+						&& mAnimatedSectionAdapter.getHeaderId(position) == mAnimatedHeaderId) {
+					wrapperView.setItemHeightFraction(mSectionAnimationFraction);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		finishSectionAnimation();
+		super.onDetachedFromWindow();
 	}
 
 	void setLifeCycleListener(LifeCycleListener lifeCycleListener) {
@@ -146,6 +359,91 @@ class WrapperViewList extends ListView {
 		return mFooterViews.contains(v);
 	}
 
+	/**
+	 * Returns the first child below {@code top} which starts a new section or is
+	 * a footer, it is what pushes the sticky header for {@code headerPosition}
+	 * up. The section index tells which child that is so only the children above
+	 * {@code top} are skipped. Without an index, while it is built in the
+	 * background, all children are looked at.
+	 */
+	View findNextSectionBoundary(SectionIndex index, int headerPosition, int top) {
+		final int childCount = getChildCount();
+		if (index == null) {
+			for (int i = 0; i < childCount; i++) {
+				final View child = getChildAt(i);
+				final boolean doesChildHaveHeader = child instanceof WrapperView && ((WrapperView) child).hasHeader();
+				final boolean isChildFooter = containsFooterView(child);
+				if (child.getTop() >= top && (doesChildHaveHeader || isChildFooter)) {
+					return child;
+				}
+			}
+			return null;
+		}
+		final int firstChildPosition = getFirstVisiblePosition() - getHeaderViewsCount();
+		final int sectionCount = index.getSectionCount();
+		int section = index.getSectionForPosition(headerPosition) + 1;
+		// past the last section the footers follow
+		int position = section < sectionCount ? index.getPositionForSection(section) : index.getCount();
+		while (position - firstChildPosition < childCount) {
+			final int childIndex = position - firstChildPosition;
+			if (childIndex >= 0) {
+				final View child = getChildAt(childIndex);
+				if (child.getTop() >= top) {
+					return child;
+				}
+			}
+			section++;
+			position = section < sectionCount ? index.getPositionForSection(section) : Math.max(position + 1, index.getCount());
+		}
+		return null;
+	}
+
+	/**
+	 * Hides the headers of items above {@code top}, they are covered by the
+	 * sticky header, and shows the ones which moved below it again. Items are
+	 * ordered by their top so only the first few children can be above it, the
+	 * wrappers hidden last time are remembered so nothing else is visited.
+	 *
+	 * @return the number of headers whose visibility was changed
+	 */
+	int updateHeaderVisibilities(int top) {
+		int writes = 0;
+
+		// show the headers of wrappers which left the top since the last pass
+		for (int i = mHiddenHeaderWrappers.size() - 1; i >= 0; i--) {
+			final WrapperView wrapperView = mHiddenHeaderWrappers.get(i);
+			if (wrapperView.getParent() == this && wrapperView.hasHeader() && wrapperView.getTop() < top) {
+				continue;
+			}
+			if (wrapperView.hasHeader() && wrapperView.getHeaderVisibility() != View.VISIBLE) {
+				wrapperView.setHeaderVisibility(View.VISIBLE);
+				writes++;
+			}
+			mHiddenHeaderWrappers.remove(i);
+		}
+
+		// hide the headers of wrappers which are now above the top
+		final int childCount = getChildCount();
+		for (int i = 0; i < childCount; i++) {
+			final View child = getChildAt(i);
+			if (child.getTop() >= top) {
+				break;
+			}
+			if (!(child instanceof WrapperView) || !((WrapperView) child).hasHeader()) {
+				continue;
+			}
+			final WrapperView wrapperView = (WrapperView) child;
+			if (wrapperView.getHeaderVisibility() != View.INVISIBLE) {
+				wrapperView.setHeaderVisibility(View.INVISIBLE);
+				writes++;
+			}
+			if (!mHiddenHeaderWrappers.contains(wrapperView)) {
+				mHiddenHeaderWrappers.add(wrapperView);
+			}
+		}
+		return writes;
+	}
+
 	void setTopClippingLength(int topClipping) {
 		mTopClippingLength = topClipping;
 	}
@@ -190,6 +488,10 @@ class WrapperViewList extends ListView {
     @Override
     protected void layoutChildren() {
         if (!mBlockLayoutChildren) {
+            if (mAnimatedSectionAdapter != null) {
+                // wrappers are only marked, the layout below measures them
+                stepSectionAnimation();
+            }
             super.layoutChildren();
         }
     }
@@ -0,0 +1,160 @@
+package se.emilsjolander.stickylistheaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+
+import org.junit.Test;
+
+public class AdapterWrapperTest {
+
+	private static final StickyHeaderRenderer RENDERER = new StickyHeaderRenderer() {
+
+		@Override
+		public int getHeaderHeight(long headerId, int width) {
+			return 10;
+		}
+
+		@Override
+		public void drawHeader(Canvas canvas, long headerId, Rect bounds) {
+		}
+	};
+
+	@Test
+	public void everyHeaderViewSharesOneClickListener() {
+		final ClickListenerRecordingAdapter adapter = new ClickListenerRecordingAdapter(1, 1, 2, 3);
+		AdapterWrapper wrapper = new AdapterWrapper(null, adapter);
+
+		WrapperView first = wrapper.getView(0, null, null);
+		OnClickListener listener = adapter.mLastClickListener;
+		wrapper.getView(2, null, null);
+		assertSame(listener, adapter.mLastClickListener);
+		// rebinding a recycled wrapper does not allocate a listener either
+		wrapper.getView(3, first, null);
+		assertSame(listener, adapter.mLastClickListener);
+	}
+
+	@Test
+	public void renderedHeaderClicksReportTheBoundPosition() {
+		AdapterWrapper wrapper = new AdapterWrapper(null, new FakeStickyListHeadersAdapter(1, 1, 2, 3));
+		wrapper.setHeaderRenderer(RENDERER);
+		ClickRecorder recorder = new ClickRecorder();
+		wrapper.setOnHeaderClickListener(recorder);
+
+		WrapperView first = wrapper.getView(0, null, null);
+		WrapperView second = wrapper.getView(2, null, null);
+		assertSame(first.mRenderedHeaderClickListener, second.mRenderedHeaderClickListener);
+
+		second.mRenderedHeaderClickListener.onClick(second);
+		assertNull(recorder.mHeader);
+		assertEquals(2, recorder.mItemPosition);
+		assertEquals(2, recorder.mHeaderId);
+
+		wrapper.getView(3, first, null);
+		first.mRenderedHeaderClickListener.onClick(first);
+		assertEquals(3, recorder.mItemPosition);
+		assertEquals(3, recorder.mHeaderId);
+	}
+
+	@Test
+	public void aPrewarmedHeaderIsBoundInsteadOfCreated() {
+		FakeStickyListHeadersAdapter adapter = new FakeStickyListHeadersAdapter(1, 1, 2, 3);
+		AdapterWrapper wrapper = new AdapterWrapper(null, adapter);
+
+		wrapper.prewarmHeader(2, null);
+		assertEquals(1, adapter.mCreatedHeaderCount);
+
+		wrapper.getView(2, null, null);
+		assertEquals(1, adapter.mCreatedHeaderCount);
+		assertEquals(1, wrapper.getHeaderPool().getHitCount());
+		assertEquals(0, wrapper.getHeaderPool().getMissCount());
+	}
+
+	@Test
+	public void prewarmingRenderedHeadersCreatesNothing() {
+		FakeStickyListHeadersAdapter adapter = new FakeStickyListHeadersAdapter(1, 2);
+		AdapterWrapper wrapper = new AdapterWrapper(null, adapter);
+		wrapper.setHeaderRenderer(RENDERER);
+
+		wrapper.prewarmHeader(1, null);
+
+		assertEquals(0, adapter.mCreatedHeaderCount);
+	}
+
+	@Test
+	public void headersOfTheIgnoredTypeAreNeverReused() {
+		IgnoredHeaderTypeAdapter adapter = new IgnoredHeaderTypeAdapter(1, 2, 3);
+		AdapterWrapper wrapper = new AdapterWrapper(null, adapter);
+
+		WrapperView wv = wrapper.getView(0, null, null);
+		wrapper.getView(1, wv, null);
+		wrapper.prewarmHeader(2, null);
+		wrapper.getView(2, null, null);
+
+		assertEquals(3, adapter.mCreatedHeaderCount);
+		assertEquals(0, wrapper.getHeaderPool().getHitCount());
+		assertEquals(0, wrapper.getHeaderPool().getMissCount());
+	}
+
+	private static class IgnoredHeaderTypeAdapter extends FakeStickyListHeadersAdapter
+			implements StickyListHeadersViewTypeAdapter {
+
+		IgnoredHeaderTypeAdapter(long... headerIds) {
+			super(headerIds);
+		}
+
+		@Override
+		public int getHeaderViewType(int position) {
+			return IGNORE_ITEM_VIEW_TYPE;
+		}
+
+		@Override
+		public int getHeaderViewTypeCount() {
+			return 1;
+		}
+	}
+
+	private static class ClickListenerRecordingAdapter extends FakeStickyListHeadersAdapter {
+
+		OnClickListener mLastClickListener;
+
+		ClickListenerRecordingAdapter(long... headerIds) {
+			super(headerIds);
+		}
+
+		@Override
+		public View getHeaderView(int position, View convertView, ViewGroup parent) {
+			if (convertView == null) {
+				mCreatedHeaderCount++;
+				convertView = new View(null) {
+
+					@Override
+					public void setOnClickListener(OnClickListener l) {
+						mLastClickListener = l;
+					}
+				};
+			}
+			return convertView;
+		}
+	}
+
+	private static class ClickRecorder implements AdapterWrapper.OnHeaderClickListener {
+
+		View mHeader;
+		int mItemPosition = -1;
+		long mHeaderId = -1;
+
+		@Override
+		public void onHeaderClick(View header, int itemPosition, long headerId) {
+			mHeader = header;
+			mItemPosition = itemPosition;
+			mHeaderId = headerId;
+		}
+	}
+}
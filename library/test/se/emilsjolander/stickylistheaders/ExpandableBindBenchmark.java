@@ -0,0 +1,46 @@
+package se.emilsjolander.stickylistheaders;
+
+import android.view.View;
+
+/**
+ * Times binding rows of an {@link ExpandableStickyListHeadersAdapter} whose
+ * every section is collapsed, for growing numbers of sections. The time per
+ * bind stays flat because the collapsed header ids are looked up in a hash
+ * set. Not a unit test, run {@link #main(String[])} on the unit test classpath.
+ */
+public class ExpandableBindBenchmark {
+
+    private static final int[] SECTION_COUNTS = { 10, 1000, 100000 };
+    private static final int BINDS = 2000000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        for (int sectionCount : SECTION_COUNTS) {
+            ExpandableStickyListHeadersAdapter adapter = collapsedAdapter(sectionCount);
+            View convertView = new View(null);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                final long start = System.nanoTime();
+                for (int i = 0; i < BINDS; i++) {
+                    adapter.getView(i % sectionCount, convertView, null);
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.println(sectionCount + " sections: " + best / BINDS + " ns per bind");
+        }
+    }
+
+    // one row per section, every section collapsed
+    private static ExpandableStickyListHeadersAdapter collapsedAdapter(int sectionCount) {
+        long[] headerIds = new long[sectionCount];
+        for (int i = 0; i < sectionCount; i++) {
+            headerIds[i] = i;
+        }
+        ExpandableStickyListHeadersAdapter adapter = new ExpandableStickyListHeadersAdapter(
+                new FakeStickyListHeadersAdapter(headerIds));
+        for (long headerId : headerIds) {
+            adapter.collapse(headerId);
+        }
+        return adapter;
+    }
+}
@@ -0,0 +1,115 @@
+package se.emilsjolander.stickylistheaders;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Compares collapsing every section one by one, the way
+ * {@link ExpandableStickyListHeadersListView#collapse(long)} does without an
+ * animation, with {@code collapseAll()}. Counts the data set changes and view
+ * visibility changes each causes and times them. Every data set change is a
+ * layout of the list, every visibility change requests one. Not a unit test,
+ * run {@link #main(String[])} on the unit test classpath.
+ */
+public class ExpandableBulkCollapseBenchmark {
+
+    private static final int SECTION_COUNT = 500;
+    private static final int ROWS_PER_SECTION = 4;
+    // the rows a list on screen has bound
+    private static final int BOUND_ROWS = 20;
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) {
+        run(false);
+        run(true);
+    }
+
+    private static void run(boolean removeCollapsedItems) {
+        long oneByOneBest = Long.MAX_VALUE;
+        long bulkBest = Long.MAX_VALUE;
+        CountingAdapter oneByOne = null;
+        CountingAdapter bulk = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            oneByOne = boundAdapter(removeCollapsedItems);
+            long start = System.nanoTime();
+            for (int section = 0; section < SECTION_COUNT; section++) {
+                oneByOne.collapse(section);
+                if (!removeCollapsedItems) {
+                    for (View view : oneByOne.getItemViewsByHeaderId(section)) {
+                        view.setVisibility(View.GONE);
+                    }
+                }
+            }
+            oneByOneBest = Math.min(oneByOneBest, System.nanoTime() - start);
+
+            bulk = boundAdapter(removeCollapsedItems);
+            start = System.nanoTime();
+            bulk.collapseAll();
+            bulkBest = Math.min(bulkBest, System.nanoTime() - start);
+        }
+        System.out.println((removeCollapsedItems ? "removing" : "hiding") + " collapsed rows of "
+                + SECTION_COUNT + " sections");
+        print("collapse(long)", oneByOneBest, oneByOne);
+        print("collapseAll()", bulkBest, bulk);
+    }
+
+    private static void print(String name, long nanos, CountingAdapter adapter) {
+        System.out.println("  " + name + ": " + nanos / 1000 + " us, " + adapter.mChangedCount
+                + " data set changes, " + adapter.mVisibilityChanges + " visibility changes");
+    }
+
+    private static CountingAdapter boundAdapter(boolean removeCollapsedItems) {
+        long[] headerIds = new long[SECTION_COUNT * ROWS_PER_SECTION];
+        for (int i = 0; i < headerIds.length; i++) {
+            headerIds[i] = i / ROWS_PER_SECTION;
+        }
+        final CountingAdapter adapter = new CountingAdapter(new FakeStickyListHeadersAdapter(headerIds) {
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                return convertView != null ? convertView : new CountingView();
+            }
+        });
+        adapter.setRemoveCollapsedItems(removeCollapsedItems);
+        for (int position = 0; position < BOUND_ROWS; position++) {
+            ((CountingView) adapter.getView(position, null, null)).mAdapter = adapter;
+        }
+        // collapseAll() reads the sections from the index, build it up front
+        adapter.collapseAll();
+        adapter.expandAll();
+        adapter.mChangedCount = 0;
+        adapter.mVisibilityChanges = 0;
+        return adapter;
+    }
+
+    private static class CountingAdapter extends ExpandableStickyListHeadersAdapter {
+
+        int mChangedCount;
+        int mVisibilityChanges;
+
+        CountingAdapter(StickyListHeadersAdapter innerAdapter) {
+            super(innerAdapter);
+        }
+
+        @Override
+        public void notifyDataSetChanged() {
+            mChangedCount++;
+            super.notifyDataSetChanged();
+        }
+    }
+
+    private static class CountingView extends View {
+
+        CountingAdapter mAdapter;
+
+        CountingView() {
+            super(null);
+        }
+
+        @Override
+        public void setVisibility(int visibility) {
+            if (mAdapter != null) {
+                mAdapter.mVisibilityChanges++;
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package se.emilsjolander.stickylistheaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExpandableStickyListHeadersAdapterTest {
+
+    // three sections: rows 0-2, 3-4 and 5
+    private static final long[] HEADER_IDS = { 10, 10, 10, 20, 20, 30 };
+
+    @Test
+    public void collapseAllCollapsesEverySection() {
+        CountingAdapter adapter = new CountingAdapter(new FakeStickyListHeadersAdapter(HEADER_IDS));
+        adapter.collapseAll();
+
+        assertCollapsed(adapter, 10, 20, 30);
+    }
+
+    @Test
+    public void expandAllExpandsEverySection() {
+        CountingAdapter adapter = new CountingAdapter(new FakeStickyListHeadersAdapter(HEADER_IDS));
+        adapter.collapse(10);
+        adapter.collapse(30);
+        adapter.expandAll();
+
+        assertCollapsed(adapter);
+        assertFalse(adapter.isHeaderCollapsed(10));
+    }
+
+    @Test
+    public void setCollapsedHeaderIdsReplacesTheCollapsedSections() {
+        CountingAdapter adapter = new CountingAdapter(new FakeStickyListHeadersAdapter(HEADER_IDS));
+        adapter.collapse(10);
+        adapter.setCollapsedHeaderIds(new long[] { 20, 30 });
+
+        assertCollapsed(adapter, 20, 30);
+    }
+
+    @Test
+    public void theCollapseFilterIsAskedOncePerSection() {
+        CountingAdapter adapter = new CountingAdapter(new FakeStickyListHeadersAdapter(HEADER_IDS));
+        final List<Long> asked = new ArrayList<Long>();
+        adapter.setCollapsedHeaderIds(new ExpandableStickyListHeadersListView.ICollapseFilter() {
+            @Override
+            public boolean shouldCollapse(long headerId) {
+                asked.add(headerId);
+                return headerId != 20;
+            }
+        });
+
+        assertEquals(Arrays.asList(10L, 20L, 30L), asked);
+        assertCollapsed(adapter, 10, 30);
+    }
+
+    @Test
+    public void bulkChangesHideTrackedViewsInOnePass() {
+        CountingAdapter adapter = new CountingAdapter(new FakeStickyListHeadersAdapter(HEADER_IDS) {
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                return new VisibilityView();
+            }
+        });
+        List<View> views = new ArrayList<View>();
+        for (int position = 0; position < HEADER_IDS.length; position++) {
+            views.add(adapter.getView(position, null, null));
+        }
+
+        adapter.setCollapsedHeaderIds(new long[] { 20 });
+
+        for (int position = 0; position < HEADER_IDS.length; position++) {
+            assertEquals("row " + position, HEADER_IDS[position] == 20 ? View.GONE : View.VISIBLE,
+                    views.get(position).getVisibility());
+        }
+        // the rows stay in the adapter, only their visibility changed
+        assertEquals(HEADER_IDS.length, adapter.getCount());
+        assertEquals(0, adapter.mChangedCount);
+    }
+
+    @Test
+    public void bulkChangesRemovingItemsNotifyOnce() {
+        CountingAdapter adapter = new CountingAdapter(new FakeStickyListHeadersAdapter(HEADER_IDS));
+        adapter.setRemoveCollapsedItems(true);
+        adapter.mChangedCount = 0;
+
+        adapter.collapseAll();
+
+        assertEquals(1, adapter.mChangedCount);
+        assertEquals(3, adapter.getCount());
+        assertEquals(0, adapter.toInnerPosition(0));
+        assertEquals(3, adapter.toInnerPosition(1));
+        assertEquals(5, adapter.toInnerPosition(2));
+
+        adapter.setCollapsedHeaderIds(new long[] { 10 });
+
+        assertEquals(2, adapter.mChangedCount);
+        assertEquals(4, adapter.getCount());
+        assertEquals(3, adapter.toInnerPosition(1));
+        assertEquals(20, adapter.getHeaderId(2));
+
+        adapter.expandAll();
+
+        assertEquals(3, adapter.mChangedCount);
+        assertEquals(HEADER_IDS.length, adapter.getCount());
+        assertEquals(1, adapter.toInnerPosition(1));
+    }
+
+    private static void assertCollapsed(ExpandableStickyListHeadersAdapter adapter, long... headerIds) {
+        long[] collapsed = adapter.getCollapsedHeaderIds();
+        Arrays.sort(collapsed);
+        assertTrue(Arrays.toString(collapsed), Arrays.equals(headerIds, collapsed));
+    }
+
+    private static class CountingAdapter extends ExpandableStickyListHeadersAdapter {
+
+        int mChangedCount;
+
+        CountingAdapter(StickyListHeadersAdapter innerAdapter) {
+            super(innerAdapter);
+        }
+
+        @Override
+        public void notifyDataSetChanged() {
+            mChangedCount++;
+            super.notifyDataSetChanged();
+        }
+    }
+
+    private static class VisibilityView extends View {
+
+        private int mVisibility = VISIBLE;
+
+        VisibilityView() {
+            super(null);
+        }
+
+        @Override
+        public void setVisibility(int visibility) {
+            mVisibility = visibility;
+        }
+
+        @Override
+        public int getVisibility() {
+            return mVisibility;
+        }
+    }
+}
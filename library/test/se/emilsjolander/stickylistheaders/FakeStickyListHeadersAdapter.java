@@ -0,0 +1,69 @@
+package se.emilsjolander.stickylistheaders;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+/**
+ * An adapter with one row per header id, counting the item and header views
+ * it had to create because no convert view was passed in.
+ */
+class FakeStickyListHeadersAdapter extends BaseAdapter implements StickyListHeadersAdapter {
+
+	long[] mHeaderIds;
+	int mCreatedItemCount;
+	int mCreatedHeaderCount;
+
+	FakeStickyListHeadersAdapter(long... headerIds) {
+		mHeaderIds = headerIds;
+	}
+
+	@Override
+	public int getCount() {
+		return mHeaderIds.length;
+	}
+
+	@Override
+	public Object getItem(int position) {
+		return position;
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return position;
+	}
+
+	// the android.jar of unit tests answers 0 for every method it does not implement
+	@Override
+	public int getViewTypeCount() {
+		return 1;
+	}
+
+	@Override
+	public int getItemViewType(int position) {
+		return 0;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		if (convertView == null) {
+			mCreatedItemCount++;
+			convertView = new View(null);
+		}
+		return convertView;
+	}
+
+	@Override
+	public View getHeaderView(int position, View convertView, ViewGroup parent) {
+		if (convertView == null) {
+			mCreatedHeaderCount++;
+			convertView = new View(null);
+		}
+		return convertView;
+	}
+
+	@Override
+	public long getHeaderId(int position) {
+		return mHeaderIds[position];
+	}
+}
@@ -0,0 +1,58 @@
+package se.emilsjolander.stickylistheaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.view.View;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class ItemViewTrackerTest {
+
+    @Test
+    public void viewsAreFoundByTheirItemAndHeader() {
+        ItemViewTracker tracker = new ItemViewTracker();
+        View first = new View(null);
+        View second = new View(null);
+        tracker.track(first, 10, 1);
+        tracker.track(second, 11, 1);
+
+        assertSame(first, tracker.findViewByItemId(10));
+        assertEquals(11, tracker.findItemIdByView(second));
+        List<View> views = tracker.getViewsByHeaderId(1);
+        assertEquals(2, views.size());
+        assertTrue(views.contains(first) && views.contains(second));
+    }
+
+    @Test
+    public void aReboundViewIsDroppedFromItsOldItemAndHeader() {
+        ItemViewTracker tracker = new ItemViewTracker();
+        View view = new View(null);
+        tracker.track(view, 10, 1);
+        tracker.track(view, 20, 2);
+
+        assertNull(tracker.findViewByItemId(10));
+        assertTrue(tracker.getViewsByHeaderId(1).isEmpty());
+        assertSame(view, tracker.findViewByItemId(20));
+        assertEquals(1, tracker.getViewsByHeaderId(2).size());
+    }
+
+    @Test
+    public void rebindingAnotherViewKeepsTheItemsNewView() {
+        ItemViewTracker tracker = new ItemViewTracker();
+        View old = new View(null);
+        View current = new View(null);
+        tracker.track(old, 10, 1);
+        tracker.track(current, 10, 1);
+        tracker.track(old, 30, 3);
+
+        assertSame(current, tracker.findViewByItemId(10));
+        List<View> views = tracker.getViewsByHeaderId(1);
+        assertEquals(1, views.size());
+        assertSame(current, views.get(0));
+    }
+}
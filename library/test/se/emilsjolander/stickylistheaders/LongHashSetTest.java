@@ -0,0 +1,150 @@
+package se.emilsjolander.stickylistheaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LongHashSetTest {
+
+    @Test
+    public void addContainsAndRemove() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertEquals(1, set.size());
+
+        assertTrue(set.remove(42));
+        assertFalse(set.remove(42));
+        assertFalse(set.contains(42));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void zeroAndNegativeKeys() {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(-1));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertEquals(3, set.size());
+
+        assertTrue(set.remove(0));
+        assertFalse(set.contains(0));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void removingFromTheMiddleOfAProbeRunKeepsLaterKeys() {
+        LongHashSet set = new LongHashSet();
+        long[] keys = collidingKeys(6, 15);
+        for (long key : keys) {
+            set.add(key);
+        }
+        // every key shares a home slot, so each removal shifts the run back
+        assertTrue(set.remove(keys[0]));
+        assertTrue(set.remove(keys[3]));
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals("key " + i, i != 0 && i != 3, set.contains(keys[i]));
+        }
+        assertTrue(set.add(keys[3]));
+        assertTrue(set.contains(keys[3]));
+        assertEquals(5, set.size());
+    }
+
+    @Test
+    public void probeRunsWrapAroundTheEndOfTheTable() {
+        LongHashSet set = new LongHashSet();
+        // home slot is the last one of the 16 slot table
+        long[] keys = collidingKeys(4, 15);
+        for (long key : keys) {
+            set.add(key);
+        }
+        assertTrue(set.remove(keys[1]));
+        assertTrue(set.contains(keys[0]));
+        assertFalse(set.contains(keys[1]));
+        assertTrue(set.contains(keys[2]));
+        assertTrue(set.contains(keys[3]));
+    }
+
+    @Test
+    public void growingKeepsEveryKey() {
+        LongHashSet set = new LongHashSet();
+        for (long key = 1; key <= 10000; key++) {
+            assertTrue(set.add(key * 31));
+        }
+        assertEquals(10000, set.size());
+        for (long key = 1; key <= 10000; key++) {
+            assertTrue(set.contains(key * 31));
+            assertFalse(set.contains(key * 31 + 1));
+        }
+    }
+
+    @Test
+    public void clearRemovesEveryKey() {
+        LongHashSet set = new LongHashSet();
+        set.add(0);
+        set.add(7);
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(7));
+    }
+
+    @Test
+    public void toArrayReturnsEveryKey() {
+        LongHashSet set = new LongHashSet();
+        set.add(3);
+        set.add(0);
+        set.add(-9);
+        long[] keys = set.toArray();
+        Arrays.sort(keys);
+        assertTrue(Arrays.equals(new long[] { -9, 0, 3 }, keys));
+    }
+
+    @Test
+    public void behavesLikeAHashSet() {
+        Random random = new Random(7);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 100000; i++) {
+            // a small key range makes for long probe runs and many removals
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long key = -1000; key < 1000; key++) {
+            assertEquals(expected.contains(key), set.contains(key));
+        }
+    }
+
+    /**
+     * @return {@code count} distinct keys all hashing to {@code slot} of a
+     * table with 16 slots
+     */
+    static long[] collidingKeys(int count, int slot) {
+        long[] keys = new long[count];
+        int found = 0;
+        for (long key = 1; found < count; key++) {
+            if ((LongIntHashMap.hash(key) & 15) == slot) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,188 @@
+package se.emilsjolander.stickylistheaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SectionIndexTest {
+
+	@Test
+	public void buildRecordsWhereEachSectionStarts() {
+		SectionIndex index = new SectionIndex();
+		index.build(new FakeStickyListHeadersAdapter(1, 1, 2, 3, 3, 3));
+
+		assertTrue(index.isBuilt());
+		assertEquals(6, index.getCount());
+		assertEquals(3, index.getSectionCount());
+		assertEquals(0, index.getPositionForSection(0));
+		assertEquals(2, index.getPositionForSection(1));
+		assertEquals(3, index.getPositionForSection(2));
+		assertEquals(3, index.getHeaderIdForSection(2));
+		assertEquals(0, index.getSectionForPosition(1));
+		assertEquals(2, index.getSectionForPosition(5));
+		assertEquals(3, index.getHeaderId(4));
+		assertTrue(index.isSectionStart(3));
+		assertFalse(index.isSectionStart(4));
+	}
+
+	@Test
+	public void buildStartsANewSectionWhenAHeaderIdRepeatsLater() {
+		SectionIndex index = new SectionIndex();
+		index.build(new FakeStickyListHeadersAdapter(1, 2, 1));
+
+		assertEquals(3, index.getSectionCount());
+		assertEquals(1, index.getHeaderIdForSection(2));
+	}
+
+	@Test
+	public void buildOfAnEmptyAdapterHasNoSections() {
+		SectionIndex index = new SectionIndex();
+		index.build(new FakeStickyListHeadersAdapter());
+
+		assertEquals(0, index.getSectionCount());
+		assertEquals(-1, index.getSectionForPosition(0));
+		assertFalse(index.isSectionStart(3));
+	}
+
+	@Test
+	public void appendJoinsTheSectionAtTheSeam() {
+		FakeStickyListHeadersAdapter adapter = new FakeStickyListHeadersAdapter(1, 1, 2, 2, 2, 3, 4);
+		SectionIndex first = new SectionIndex();
+		first.buildRange(adapter, 0, 3);
+		SectionIndex second = new SectionIndex();
+		second.buildRange(adapter, 3, 7);
+
+		first.append(second);
+
+		SectionIndex expected = new SectionIndex();
+		expected.build(adapter);
+		assertSameSections(expected, first);
+	}
+
+	@Test
+	public void appendKeepsSectionsApartWhenTheSeamIsABoundary() {
+		FakeStickyListHeadersAdapter adapter = new FakeStickyListHeadersAdapter(1, 1, 2, 2);
+		SectionIndex first = new SectionIndex();
+		first.buildRange(adapter, 0, 2);
+		SectionIndex second = new SectionIndex();
+		second.buildRange(adapter, 2, 4);
+
+		first.append(second);
+
+		assertEquals(2, first.getSectionCount());
+		assertEquals(2, first.getPositionForSection(1));
+	}
+
+	@Test
+	public void replaceRangeInsertingIntoASection() {
+		FakeStickyListHeadersAdapter adapter = new FakeStickyListHeadersAdapter(1, 1, 2, 2, 3);
+		SectionIndex index = new SectionIndex();
+		index.build(adapter);
+
+		adapter.mHeaderIds = new long[] { 1, 1, 2, 2, 2, 2, 3 };
+		index.replaceRange(adapter, 4, 0, 2);
+
+		assertReplacedLikeRebuilt(adapter, index);
+	}
+
+	@Test
+	public void replaceRangeRemovingAWholeSectionJoinsItsNeighbours() {
+		FakeStickyListHeadersAdapter adapter = new FakeStickyListHeadersAdapter(1, 1, 2, 1, 1);
+		SectionIndex index = new SectionIndex();
+		index.build(adapter);
+
+		adapter.mHeaderIds = new long[] { 1, 1, 1, 1 };
+		index.replaceRange(adapter, 2, 1, 0);
+
+		assertReplacedLikeRebuilt(adapter, index);
+		assertEquals(1, index.getSectionCount());
+	}
+
+	@Test
+	public void replaceRangeChangingHeaderIdsSplitsASection() {
+		FakeStickyListHeadersAdapter adapter = new FakeStickyListHeadersAdapter(1, 1, 1, 1, 2);
+		SectionIndex index = new SectionIndex();
+		index.build(adapter);
+
+		adapter.mHeaderIds = new long[] { 1, 5, 6, 1, 2 };
+		index.replaceRange(adapter, 1, 2, 2);
+
+		assertReplacedLikeRebuilt(adapter, index);
+	}
+
+	@Test
+	public void replaceRangeAtTheEnds() {
+		FakeStickyListHeadersAdapter adapter = new FakeStickyListHeadersAdapter(2, 2, 3);
+		SectionIndex index = new SectionIndex();
+		index.build(adapter);
+
+		adapter.mHeaderIds = new long[] { 1, 2, 2, 3 };
+		index.replaceRange(adapter, 0, 0, 1);
+		assertReplacedLikeRebuilt(adapter, index);
+
+		adapter.mHeaderIds = new long[] { 1, 2, 2, 3, 4, 4 };
+		index.replaceRange(adapter, 4, 0, 2);
+		assertReplacedLikeRebuilt(adapter, index);
+	}
+
+	@Test
+	public void replaceRangeWhichDoesNotMatchTheCountInvalidates() {
+		FakeStickyListHeadersAdapter adapter = new FakeStickyListHeadersAdapter(1, 1, 2);
+		SectionIndex index = new SectionIndex();
+		index.build(adapter);
+
+		adapter.mHeaderIds = new long[] { 1, 1, 2, 2 };
+		// claims two rows were inserted while only one was
+		index.replaceRange(adapter, 2, 0, 2);
+
+		assertFalse(index.isBuilt());
+	}
+
+	@Test
+	public void aTrimmedIndexCostsBytesPerSectionForEverySection() {
+		assertEquals(4 + 8, SectionIndex.BYTES_PER_SECTION);
+
+		final int rowCount = 10 * 1000 * 1000;
+		final int rowsPerSection = 10 * 1000;
+		StickyListHeadersAdapter adapter = new FakeStickyListHeadersAdapter() {
+
+			@Override
+			public int getCount() {
+				return rowCount;
+			}
+
+			@Override
+			public long getHeaderId(int position) {
+				return position / rowsPerSection;
+			}
+		};
+		SectionIndex index = new SectionIndex();
+		index.build(adapter);
+
+		final int sectionCount = rowCount / rowsPerSection;
+		assertEquals(sectionCount, index.getSectionCount());
+		// memory follows the sections, not the ten million rows
+		assertEquals((long) sectionCount * SectionIndex.BYTES_PER_SECTION, index.getSizeInBytes());
+		assertEquals(rowCount - rowsPerSection, index.getPositionForSection(sectionCount - 1));
+	}
+
+	private static void assertReplacedLikeRebuilt(StickyListHeadersAdapter adapter, SectionIndex index) {
+		SectionIndex expected = new SectionIndex();
+		expected.build(adapter);
+		assertSameSections(expected, index);
+	}
+
+	private static void assertSameSections(SectionIndex expected, SectionIndex actual) {
+		assertTrue(actual.isBuilt());
+		assertEquals("count", expected.getCount(), actual.getCount());
+		assertEquals("sections", expected.getSectionCount(), actual.getSectionCount());
+		for (int section = 0; section < expected.getSectionCount(); section++) {
+			assertEquals("start of section " + section,
+					expected.getPositionForSection(section), actual.getPositionForSection(section));
+			assertEquals("header id of section " + section,
+					expected.getHeaderIdForSection(section), actual.getHeaderIdForSection(section));
+		}
+	}
+}
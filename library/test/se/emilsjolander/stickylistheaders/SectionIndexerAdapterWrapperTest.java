@@ -0,0 +1,93 @@
+package se.emilsjolander.stickylistheaders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.widget.SectionIndexer;
+
+import org.junit.Test;
+
+public class SectionIndexerAdapterWrapperTest {
+
+	@Test
+	public void headerIdSectionsDefaultToTheHeaderIds() {
+		SectionIndexerAdapterWrapper wrapper = new SectionIndexerAdapterWrapper(null,
+				new FakeStickyListHeadersAdapter(1, 1, 2, 3, 3), true);
+
+		assertArrayEquals(new Object[] { 1L, 2L, 3L }, wrapper.getSections());
+		assertEquals(2, wrapper.getPositionForSection(1));
+		assertEquals(2, wrapper.getSectionForPosition(4));
+	}
+
+	@Test
+	public void headerIdSectionsUseTheTitlesOfTheAdapter() {
+		SectionIndexerAdapterWrapper wrapper = new SectionIndexerAdapterWrapper(null,
+				new TitledAdapter(1, 1, 2, 3, 3), true);
+
+		assertArrayEquals(new Object[] { "0", "2", "3" }, wrapper.getSections());
+	}
+
+	@Test
+	public void theExpandableAdapterPassesTitlesOn() {
+		ExpandableStickyListHeadersAdapter titled = new ExpandableStickyListHeadersAdapter(
+				new TitledAdapter(1, 1, 2));
+		ExpandableStickyListHeadersAdapter untitled = new ExpandableStickyListHeadersAdapter(
+				new FakeStickyListHeadersAdapter(1, 1, 2));
+
+		assertEquals("2", titled.getSectionTitle(2));
+		assertEquals(2L, untitled.getSectionTitle(2));
+	}
+
+	@Test
+	public void switchingTheSectionsKeepsTheSectionIndex() {
+		SectionIndexerAdapterWrapper wrapper = new SectionIndexerAdapterWrapper(null,
+				new IndexedAdapter(1, 1, 2));
+		SectionIndex index = wrapper.getSectionIndex();
+		assertArrayEquals(new Object[] { "own" }, wrapper.getSections());
+
+		wrapper.setUsingHeaderIds(true);
+		assertArrayEquals(new Object[] { 1L, 2L }, wrapper.getSections());
+		wrapper.setUsingHeaderIds(false);
+		assertArrayEquals(new Object[] { "own" }, wrapper.getSections());
+		assertSame(index, wrapper.getSectionIndex());
+	}
+
+	// titles each section with the position it starts at
+	private static class TitledAdapter extends FakeStickyListHeadersAdapter
+			implements StickyListHeadersSectionTitleAdapter {
+
+		TitledAdapter(long... headerIds) {
+			super(headerIds);
+		}
+
+		@Override
+		public Object getSectionTitle(int position) {
+			return String.valueOf(position);
+		}
+	}
+
+	// has a single section of its own
+	private static class IndexedAdapter extends FakeStickyListHeadersAdapter
+			implements SectionIndexer {
+
+		IndexedAdapter(long... headerIds) {
+			super(headerIds);
+		}
+
+		@Override
+		public Object[] getSections() {
+			return new Object[] { "own" };
+		}
+
+		@Override
+		public int getPositionForSection(int section) {
+			return 0;
+		}
+
+		@Override
+		public int getSectionForPosition(int position) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package se.emilsjolander.stickylistheaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.view.MotionEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StickyHeaderTrackerTest {
+
+	private static final float TOUCH_SLOP = 8;
+	private static final int HEADER_HEIGHT = 40;
+
+	private RecordingHost mHost;
+	private StickyHeaderTracker mTracker;
+	private FakeStickyListHeadersAdapter mAdapter;
+
+	@Before
+	public void setUp() {
+		mHost = new RecordingHost();
+		mTracker = new StickyHeaderTracker(mHost, TOUCH_SLOP);
+		mAdapter = new FakeStickyListHeadersAdapter(1, 1, 2, 2, 3);
+	}
+
+	@Test
+	public void theHeaderOfTheFirstVisibleItemIsSticky() {
+		assertEquals(2, StickyHeaderTracker.findHeaderPosition(5, 0, 2, 2, 3, -10, 30, 0));
+	}
+
+	@Test
+	public void theNextItemsHeaderIsStickyOnceTheFirstIsAboveTheTop() {
+		assertEquals(3, StickyHeaderTracker.findHeaderPosition(5, 0, 2, 2, 3, -40, -5, 0));
+	}
+
+	@Test
+	public void listHeaderViewsAreNotAdapterPositions() {
+		assertEquals(1, StickyHeaderTracker.findHeaderPosition(5, 1, 2, 2, 3, -10, 30, 0));
+		assertEquals(-1, StickyHeaderTracker.findHeaderPosition(5, 1, 0, 0, 3, -10, 30, 0));
+	}
+
+	@Test
+	public void noHeaderIsStickyWithoutChildrenOrBelowTheTop() {
+		assertEquals(-1, StickyHeaderTracker.findHeaderPosition(5, 0, 0, 0, 0, 0, 0, 0));
+		assertEquals(-1, StickyHeaderTracker.findHeaderPosition(5, 0, 0, 0, 3, 10, 50, 0));
+		assertEquals(-1, StickyHeaderTracker.findHeaderPosition(5, 0, 5, 5, 1, -10, 30, 0));
+	}
+
+	@Test
+	public void theHeaderIsOnlyBoundWhenItsIdChanges() {
+		mTracker.moveTo(0, mAdapter);
+		mTracker.moveTo(1, mAdapter);
+		assertEquals(1, mHost.mChangedCount);
+		mTracker.moveTo(2, mAdapter);
+		assertEquals(2, mHost.mChangedCount);
+		assertEquals(2, mTracker.getHeaderPosition());
+		assertEquals(2, mTracker.getHeaderId());
+	}
+
+	@Test
+	public void aRangeChangeBindsTheHeaderOnlyIfItsItemChanged() {
+		mTracker.moveTo(2, mAdapter);
+		mTracker.invalidatePosition(0, 0);
+		assertEquals(-1, mTracker.getHeaderPosition());
+		assertTrue(mTracker.hasHeader());
+		mTracker.moveTo(2, mAdapter);
+		assertEquals(1, mHost.mChangedCount);
+
+		mTracker.invalidatePosition(1, 2);
+		mTracker.moveTo(2, mAdapter);
+		assertEquals(2, mHost.mChangedCount);
+	}
+
+	@Test
+	public void theOffsetIsOnlyReportedWhenItMovesOrTheHeaderChanged() {
+		mTracker.moveTo(0, mAdapter);
+		mTracker.setHeaderOffset(0);
+		mTracker.setHeaderOffset(0);
+		assertEquals(1, mHost.mOffsetCount);
+		mTracker.setHeaderOffset(-5);
+		assertEquals(2, mHost.mOffsetCount);
+		mTracker.moveTo(2, mAdapter);
+		mTracker.setHeaderOffset(-5);
+		assertEquals(3, mHost.mOffsetCount);
+	}
+
+	@Test
+	public void clearingReleasesTheHeaderOnce() {
+		mTracker.clear();
+		assertEquals(0, mHost.mClearedCount);
+		mTracker.moveTo(0, mAdapter);
+		mTracker.clear();
+		mTracker.clear();
+		assertEquals(1, mHost.mClearedCount);
+		assertFalse(mTracker.hasHeader());
+		assertEquals(-1, mTracker.getHeaderPosition());
+	}
+
+	@Test
+	public void touchesBelowTheHeaderGoToTheList() {
+		mTracker.moveTo(0, mAdapter);
+		mTracker.setHeaderOffset(0);
+		assertEquals(StickyHeaderTracker.TOUCH_LIST, mTracker.routeTouch(MotionEvent.ACTION_DOWN, HEADER_HEIGHT + 1));
+		assertEquals(StickyHeaderTracker.TOUCH_LIST, mTracker.routeTouch(MotionEvent.ACTION_UP, HEADER_HEIGHT + 1));
+	}
+
+	@Test
+	public void touchesGoToTheListWithoutAHeader() {
+		assertEquals(StickyHeaderTracker.TOUCH_LIST, mTracker.routeTouch(MotionEvent.ACTION_DOWN, 0));
+	}
+
+	@Test
+	public void aTapOnTheHeaderIsAClick() {
+		mTracker.moveTo(0, mAdapter);
+		mTracker.setHeaderOffset(0);
+		assertEquals(StickyHeaderTracker.TOUCH_HEADER, mTracker.routeTouch(MotionEvent.ACTION_DOWN, 10));
+		assertEquals(StickyHeaderTracker.TOUCH_HEADER, mTracker.routeTouch(MotionEvent.ACTION_MOVE, 10 + TOUCH_SLOP));
+		assertEquals(StickyHeaderTracker.TOUCH_CLICK, mTracker.routeTouch(MotionEvent.ACTION_UP, 10));
+		assertEquals(StickyHeaderTracker.TOUCH_LIST, mTracker.routeTouch(MotionEvent.ACTION_MOVE, 10));
+	}
+
+	@Test
+	public void aCancelledTouchIsNoClick() {
+		mTracker.moveTo(0, mAdapter);
+		mTracker.setHeaderOffset(0);
+		mTracker.routeTouch(MotionEvent.ACTION_DOWN, 10);
+		assertEquals(StickyHeaderTracker.TOUCH_HEADER, mTracker.routeTouch(MotionEvent.ACTION_CANCEL, 10));
+		assertEquals(StickyHeaderTracker.TOUCH_LIST, mTracker.routeTouch(MotionEvent.ACTION_UP, 10));
+	}
+
+	@Test
+	public void movingPastTheSlopHandsTheTouchToTheList() {
+		mTracker.moveTo(0, mAdapter);
+		mTracker.setHeaderOffset(-20);
+		assertEquals(StickyHeaderTracker.TOUCH_HEADER, mTracker.routeTouch(MotionEvent.ACTION_DOWN, 15));
+		assertEquals(StickyHeaderTracker.TOUCH_SCROLL, mTracker.routeTouch(MotionEvent.ACTION_MOVE, 30));
+		assertEquals(15, mTracker.getDownY(), 0);
+		assertEquals(StickyHeaderTracker.TOUCH_LIST, mTracker.routeTouch(MotionEvent.ACTION_MOVE, 40));
+		assertEquals(StickyHeaderTracker.TOUCH_LIST, mTracker.routeTouch(MotionEvent.ACTION_UP, 40));
+	}
+
+	@Test
+	public void aTouchBelowAPushedUpHeaderGoesToTheList() {
+		mTracker.moveTo(0, mAdapter);
+		mTracker.setHeaderOffset(-20);
+		assertEquals(StickyHeaderTracker.TOUCH_LIST, mTracker.routeTouch(MotionEvent.ACTION_DOWN, 25));
+	}
+
+	private static class RecordingHost implements StickyHeaderTracker.Host {
+
+		int mChangedCount;
+		int mOffsetCount;
+		int mClearedCount;
+
+		@Override
+		public void onStickyHeaderChanged(int headerPosition, long headerId) {
+			mChangedCount++;
+		}
+
+		@Override
+		public void onStickyHeaderOffsetChanged(int offset) {
+			mOffsetCount++;
+		}
+
+		@Override
+		public void onStickyHeaderCleared() {
+			mClearedCount++;
+		}
+
+		@Override
+		public int getStickyHeaderHeight() {
+			return HEADER_HEIGHT;
+		}
+	}
+}
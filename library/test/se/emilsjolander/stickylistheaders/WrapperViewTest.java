@@ -0,0 +1,51 @@
+package se.emilsjolander.stickylistheaders;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.view.View;
+
+import org.junit.Test;
+
+public class WrapperViewTest {
+
+	@Test
+	public void anUnchangedChildIsNotMeasuredAgain() {
+		View child = new LayoutRequestingView(false);
+		assertFalse(WrapperView.needsMeasure(child, child, true));
+	}
+
+	@Test
+	public void aNewWidthMeasuresTheChildAgain() {
+		View child = new LayoutRequestingView(false);
+		assertTrue(WrapperView.needsMeasure(child, child, false));
+	}
+
+	@Test
+	public void aReplacedChildIsMeasured() {
+		View child = new LayoutRequestingView(false);
+		assertTrue(WrapperView.needsMeasure(child, new LayoutRequestingView(false), true));
+		assertTrue(WrapperView.needsMeasure(child, null, true));
+	}
+
+	@Test
+	public void aChildRequestingALayoutIsMeasuredAgain() {
+		View child = new LayoutRequestingView(true);
+		assertTrue(WrapperView.needsMeasure(child, child, true));
+	}
+
+	private static class LayoutRequestingView extends View {
+
+		private final boolean mIsLayoutRequested;
+
+		LayoutRequestingView(boolean isLayoutRequested) {
+			super(null);
+			mIsLayoutRequested = isLayoutRequested;
+		}
+
+		@Override
+		public boolean isLayoutRequested() {
+			return mIsLayoutRequested;
+		}
+	}
+}